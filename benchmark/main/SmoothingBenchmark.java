@@ -0,0 +1,346 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Measures the smoothing performance over datasets and parameter
+ * combinations. Each combination is run a number of warmup rounds, to let the
+ * JIT compile the hot paths, followed by the measured rounds. For every round
+ * the graph is reloaded and only the smoothing itself is timed. Besides the
+ * time per iteration, the allocation rate of the smoothing thread and the
+ * garbage collector activity are reported.
+ */
+public class SmoothingBenchmark {
+
+    private static final String usage = "SmoothingBenchmark [options]";
+    private static final String[] header = {"file", "distance", "mov", "ind", "sep", "iterations", "factor", "packed", "packed repulsion", "opening angle",
+        "converge", "force threads", "levels", "iterations run", "ns/iteration", "ns/iteration error", "alloc MB/s", "alloc bytes/iteration", "gc count", "gc ms", "final quotient"};
+
+    private List<File> files = new ArrayList<>();
+    private List<Double> distances = Arrays.asList(15.0);
+    private List<Boolean> movs = Arrays.asList(true, false);
+    private List<Boolean> inds = Arrays.asList(true, false);
+    private List<Boolean> seps = Arrays.asList(true, false);
+    private List<Integer> iterations = Arrays.asList(50);
+    private List<Double> factors = Arrays.asList(1.0);
+    private List<Boolean> packeds = Arrays.asList(true);
+    private List<Boolean> packedRepulsions = Arrays.asList(false);
+    private List<Double> openingAngles = Arrays.asList(0.0);
+    private List<Double> convergenceThresholds = Arrays.asList(0.0);
+    private List<Integer> forceThreadCounts = Arrays.asList(1);
+    private List<Integer> levelCounts = Arrays.asList(1);
+    private int warmupRounds = 2;
+    private int measurementRounds = 5;
+    private File output;
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        Options options = options();
+        SmoothingBenchmark benchmark = new SmoothingBenchmark();
+        try {
+            CommandLine line = new GnuParser().parse(options, args);
+            if (line.hasOption("help")) {
+                CommandLineOptions.printHelp(usage, options);
+                return;
+            }
+            benchmark.configure(line);
+        } catch (ParseException | IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, options);
+            return;
+        }
+
+        benchmark.execute();
+    }
+
+    private static Options options() {
+        Options options = new Options();
+        options.addOption("h", "help", false, "print this message");
+        options.addOption(CommandLineOptions.option("f", "files", "a.oco,b.oco", "datasets to run (default: all files in data)"));
+        options.addOption(CommandLineOptions.option("d", "distance", "values", "desired distances (default: 15)"));
+        options.addOption(CommandLineOptions.option(null, "mov", "values", "movable elements (default: true,false)"));
+        options.addOption(CommandLineOptions.option(null, "ind", "values", "independent curves (default: true,false)"));
+        options.addOption(CommandLineOptions.option(null, "sep", "values", "separated curves (default: true,false)"));
+        options.addOption(CommandLineOptions.option("n", "iterations", "values", "iterations per run (default: 50)"));
+        options.addOption(CommandLineOptions.option(null, "factor", "values", "flexible edge factors (default: 1.0)"));
+        options.addOption(CommandLineOptions.option(null, "packed", "values", "packed curve smoothing (default: true)"));
+        options.addOption(CommandLineOptions.option(null, "packed-repulsion", "values", "packed element repulsion (default: false)"));
+        options.addOption(CommandLineOptions.option(null, "opening-angle", "values", "Barnes-Hut opening angles of the element repulsion, 0 for exact (default: 0)"));
+        options.addOption(CommandLineOptions.option(null, "converge", "values", "convergence thresholds, 0 to disable (default: 0)"));
+        options.addOption(CommandLineOptions.option(null, "force-threads", "values", "threads used to evaluate the forces, whose allocations are not measured (default: 1)"));
+        options.addOption(CommandLineOptions.option(null, "levels", "values", "resolution levels, smoothed from the coarsest to the finest (default: 1)"));
+        options.addOption(CommandLineOptions.option("w", "warmup", "rounds", "warmup rounds per combination (default: 2)"));
+        options.addOption(CommandLineOptions.option("m", "measurement", "rounds", "measured rounds per combination (default: 5)"));
+        options.addOption(CommandLineOptions.option("o", "output", "file", "CSV file for the results"));
+        return options;
+    }
+
+    /**
+     * Reads the benchmark parameters from the command line.
+     *
+     * @param line the parsed command line.
+     */
+    private void configure(CommandLine line) {
+        if (line.hasOption("files")) {
+            for (String path : line.getOptionValue("files").split(",")) {
+                files.add(new File(path.trim()));
+            }
+        } else {
+            File[] dataFiles = new File("data").listFiles(new FilenameFilter() {
+
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(".oco");
+                }
+            });
+            if (dataFiles != null) {
+                Arrays.sort(dataFiles);
+                files.addAll(Arrays.asList(dataFiles));
+            }
+        }
+        for (File file : files) {
+            if (!file.isFile()) {
+                throw new IllegalArgumentException("Cannot read file " + file.getPath() + ".");
+            }
+        }
+
+        if (line.hasOption("distance")) {
+            distances = CommandLineOptions.parseDoubles(line.getOptionValue("distance"));
+        }
+        if (line.hasOption("mov")) {
+            movs = CommandLineOptions.parseBooleans(line.getOptionValue("mov"));
+        }
+        if (line.hasOption("ind")) {
+            inds = CommandLineOptions.parseBooleans(line.getOptionValue("ind"));
+        }
+        if (line.hasOption("sep")) {
+            seps = CommandLineOptions.parseBooleans(line.getOptionValue("sep"));
+        }
+        if (line.hasOption("iterations")) {
+            iterations = CommandLineOptions.parseIntegers(line.getOptionValue("iterations"));
+        }
+        if (line.hasOption("factor")) {
+            factors = CommandLineOptions.parseDoubles(line.getOptionValue("factor"));
+        }
+        if (line.hasOption("packed")) {
+            packeds = CommandLineOptions.parseBooleans(line.getOptionValue("packed"));
+        }
+        if (line.hasOption("packed-repulsion")) {
+            packedRepulsions = CommandLineOptions.parseBooleans(line.getOptionValue("packed-repulsion"));
+        }
+        if (line.hasOption("opening-angle")) {
+            openingAngles = CommandLineOptions.parseDoubles(line.getOptionValue("opening-angle"));
+        }
+        if (line.hasOption("converge")) {
+            convergenceThresholds = CommandLineOptions.parseDoubles(line.getOptionValue("converge"));
+        }
+        if (line.hasOption("force-threads")) {
+            forceThreadCounts = CommandLineOptions.parseIntegers(line.getOptionValue("force-threads"));
+        }
+        if (line.hasOption("levels")) {
+            levelCounts = CommandLineOptions.parseIntegers(line.getOptionValue("levels"));
+        }
+        if (line.hasOption("warmup")) {
+            warmupRounds = CommandLineOptions.parseInteger(line.getOptionValue("warmup"));
+        }
+        if (line.hasOption("measurement")) {
+            measurementRounds = CommandLineOptions.parseInteger(line.getOptionValue("measurement"));
+        }
+        if (measurementRounds < 1) {
+            throw new IllegalArgumentException("At least one measurement round is required.");
+        }
+        if (line.hasOption("output")) {
+            output = new File(line.getOptionValue("output"));
+        }
+    }
+
+    /**
+     * Runs all parameter combinations and prints the results.
+     *
+     * @throws IOException if the results cannot be written.
+     */
+    private void execute() throws IOException {
+        Appendable out = output != null ? new FileWriter(output) : System.out;
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader(header));
+        try {
+            for (File file : files) {
+                for (double distance : distances) {
+                    for (boolean mov : movs) {
+                        for (boolean ind : inds) {
+                            for (boolean sep : seps) {
+                                for (int iterationCount : iterations) {
+                                    for (double factor : factors) {
+                                        for (boolean packed : packeds) {
+                                            for (boolean packedRepulsion : packedRepulsions) {
+                                                for (double openingAngle : openingAngles) {
+                                                    for (double threshold : convergenceThresholds) {
+                                                        for (int forceThreads : forceThreadCounts) {
+                                                            for (int levelCount : levelCounts) {
+                                                                SmoothingTest test = new SmoothingTest.OcoFile(file, false);
+                                                                test.distance = distance;
+                                                                test.mov = mov;
+                                                                test.ind = ind;
+                                                                test.sep = sep;
+                                                                test.iterations = iterationCount;
+                                                                test.factor = factor;
+                                                                test.packedCurves = packed;
+                                                                test.packedRepulsion = packedRepulsion;
+                                                                test.openingAngle = openingAngle;
+                                                                test.convergenceThreshold = threshold;
+                                                                test.forceThreads = forceThreads;
+                                                                test.levels = levelCount;
+
+                                                                Result result = measure(test);
+                                                                printer.printRecord(file.getName(), distance, mov, ind, sep, iterationCount, factor, packed, packedRepulsion, openingAngle,
+                                                                        threshold, forceThreads, levelCount, result.iterations, result.nsPerIteration, result.nsPerIterationError,
+                                                                        result.allocationRate, result.bytesPerIteration, result.gcCount, result.gcMillis,
+                                                                        result.finalQuotient);
+                                                                printer.flush();
+                                                            }
+                                                        }
+                                                    }
+                                                }
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            printer.close();
+        }
+    }
+
+    /**
+     * Measures a single parameter combination.
+     *
+     * @param test the configured test.
+     * @return the measurement result.
+     */
+    private Result measure(SmoothingTest test) {
+        for (int i = 0; i < warmupRounds; i++) {
+            test.reset();
+            test.mainRun();
+        }
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        long threadId = Thread.currentThread().getId();
+
+        double[] nsPerIteration = new double[measurementRounds];
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long totalIterations = 0;
+        long gcCount = 0;
+        long gcMillis = 0;
+        double finalQuotient = 0;
+        for (int i = 0; i < measurementRounds; i++) {
+            test.reset();
+            System.gc();
+
+            long startGcCount = gcCount();
+            long startGcMillis = gcMillis();
+            long startBytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+            long startTime = System.nanoTime();
+            test.mainRun();
+            long stopTime = System.nanoTime();
+            long stopBytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+
+            totalNanos += stopTime - startTime;
+            totalBytes += stopBytes - startBytes;
+            gcCount += gcCount() - startGcCount;
+            gcMillis += gcMillis() - startGcMillis;
+            totalIterations += test.completedIterations();
+            nsPerIteration[i] = (double) (stopTime - startTime) / test.completedIterations();
+            finalQuotient = SmoothingTest.averageIsoperimetricQuotient(test.graph);
+        }
+
+        double mean = 0;
+        for (double value : nsPerIteration) {
+            mean += value;
+        }
+        mean /= measurementRounds;
+        double variance = 0;
+        for (double value : nsPerIteration) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = measurementRounds > 1 ? Math.sqrt(variance / (measurementRounds - 1)) : Double.NaN;
+
+        Result result = new Result();
+        result.iterations = (double) totalIterations / measurementRounds;
+        result.nsPerIteration = mean;
+        result.nsPerIterationError = error;
+        result.allocationRate = allocationBean != null ? totalBytes / 1048576.0 / (totalNanos / 1e9) : Double.NaN;
+        result.bytesPerIteration = allocationBean != null ? (double) totalBytes / totalIterations : Double.NaN;
+        result.gcCount = gcCount;
+        result.gcMillis = gcMillis;
+        result.finalQuotient = finalQuotient;
+        return result;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * The result of the measurement of a parameter combination.
+     */
+    private static class Result {
+
+        double iterations;
+        double nsPerIteration;
+        double nsPerIterationError;
+        double allocationRate;
+        double bytesPerIteration;
+        long gcCount;
+        long gcMillis;
+        double finalQuotient;
+    }
+}
@@ -0,0 +1,526 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.graph.serialization.oco.OcoSaver;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Runs smoothing tests from the command line, without requiring a display.
+ */
+public class BatchSmoothing {
+
+    private static final String usage = "EulerSmooth [options] [file.oco ...]";
+    private static final String statisticsFileName = "statistics.csv";
+    private static final String[] statisticsHeader = {"name", "iterations", "initial quotient", "final quotient", "seconds", "topology violations"};
+
+    private final List<SmoothingTest> tests = new ArrayList<>();
+    private final Map<SmoothingTest, String> outputNames = new IdentityHashMap<>();
+    private Double distance;
+    private Boolean mov;
+    private Boolean ind;
+    private Boolean sep;
+    private Integer iterations;
+    private Double convergenceThreshold;
+    private Integer convergenceWindow;
+    private Integer forceThreads;
+    private Integer levels;
+    private Double levelRatio;
+    private Integer coarseIterations;
+    private Double openingAngle;
+    private boolean elementOverlap;
+    private boolean packedRepulsion;
+    private File outputDir;
+    private boolean snapshot;
+    private boolean profiling;
+    private boolean quality;
+    private boolean deltas;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long timeout = 0;
+
+    /**
+     * Parses the command line arguments and runs the requested tests.
+     *
+     * @param args the command line arguments.
+     */
+    public static void run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        Options options = options();
+        CommandLine line;
+        try {
+            CommandLineParser parser = new GnuParser();
+            line = parser.parse(options, args);
+        } catch (ParseException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, options);
+            return;
+        }
+
+        if (line.hasOption("help")) {
+            CommandLineOptions.printHelp(usage, options);
+            return;
+        }
+
+        BatchSmoothing batch = new BatchSmoothing();
+        try {
+            batch.configure(line);
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, options);
+            return;
+        }
+
+        if (batch.tests.isEmpty()) {
+            System.err.println("No test selected.");
+            CommandLineOptions.printHelp(usage, options);
+            return;
+        }
+
+        batch.execute();
+    }
+
+    /**
+     * Builds the command line options.
+     *
+     * @return the options.
+     */
+    private static Options options() {
+        Options options = new Options();
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("a", "all", false, "run all the predefined tests");
+        options.addOption("x", "duplicate-shared", false, "duplicate the curves shared by more sets in the input files");
+        options.addOption(CommandLineOptions.option("d", "distance", "value", "desired distance between elements"));
+        options.addOption(CommandLineOptions.option("n", "iterations", "number", "number of iterations"));
+        options.addOption(CommandLineOptions.option(null, "converge", "threshold", "stop when the average isoperimetric quotient improves less than the threshold over the convergence window"));
+        options.addOption(CommandLineOptions.option(null, "window", "number", "number of iterations of the convergence window (default: 50)"));
+        options.addOption(CommandLineOptions.option(null, "force-threads", "number", "threads used to evaluate the forces of each test (default: 1)"));
+        options.addOption(CommandLineOptions.option(null, "levels", "number", "number of resolution levels, smoothed from the coarsest to the finest (default: 1)"));
+        options.addOption(CommandLineOptions.option(null, "level-ratio", "value", "ratio between the distances of consecutive levels (default: 2)"));
+        options.addOption(CommandLineOptions.option(null, "coarse-iterations", "number", "number of iterations of each coarse level (default: 50)"));
+        options.addOption(CommandLineOptions.option(null, "opening-angle", "value", "Barnes-Hut opening angle of the element repulsion, 0 for the exact repulsion (default: 0)"));
+        options.addOption(null, "no-overlap", false, "keep the nodeSize boxes of the set elements from overlapping");
+        options.addOption(null, "packed-repulsion", false, "compute the exact element repulsion on packed arrays, which selects slightly different node pairs than the standard force");
+        options.addOption(CommandLineOptions.option(null, "mov", "true|false", "allow set elements to move"));
+        options.addOption(CommandLineOptions.option(null, "ind", "true|false", "use independent curve smoothing"));
+        options.addOption(CommandLineOptions.option(null, "sep", "true|false", "keep curves separated"));
+        options.addOption(CommandLineOptions.option("t", "threads", "number", "number of tests run in parallel (default: number of processors)"));
+        options.addOption(CommandLineOptions.option(null, "timeout", "seconds", "maximum running time of each test"));
+        options.addOption(CommandLineOptions.option("o", "output", "directory", "directory for the smoothed graphs and statistics"));
+        options.addOption("s", "snapshot", false, "save the smoothed graphs as binary diagram snapshots instead of oco files");
+        options.addOption("p", "profile", false, "profile the Impred stages, saving a JSON and CSV report per test in the output directory or printing it otherwise");
+        options.addOption("q", "quality", false, "track the curve quality at every iteration, saving a CSV time series per test in the output directory or printing the final values otherwise");
+        options.addOption(null, "deltas", false, "stream the layout at every iteration as binary delta frames, saved per test in the output directory");
+        return options;
+    }
+
+    /**
+     * Reads the tests to run and their parameters from the command line.
+     *
+     * @param line the parsed command line.
+     */
+    private void configure(CommandLine line) {
+        if (line.hasOption("all")) {
+            tests.addAll(SmoothingTest.scenarios());
+        }
+        boolean duplicateShared = line.hasOption("duplicate-shared");
+        for (String path : line.getArgs()) {
+            File file = new File(path);
+            if (!file.isFile()) {
+                throw new IllegalArgumentException("Cannot read file " + path + ".");
+            }
+            tests.add(new SmoothingTest.OcoFile(file, duplicateShared));
+        }
+
+        if (line.hasOption("distance")) {
+            distance = CommandLineOptions.parseDouble(line.getOptionValue("distance"));
+        }
+        if (line.hasOption("iterations")) {
+            iterations = CommandLineOptions.parseInteger(line.getOptionValue("iterations"));
+        }
+        if (line.hasOption("converge")) {
+            convergenceThreshold = CommandLineOptions.parseDouble(line.getOptionValue("converge"));
+        }
+        if (line.hasOption("window")) {
+            convergenceWindow = CommandLineOptions.parseInteger(line.getOptionValue("window"));
+            if (convergenceWindow < 1) {
+                throw new IllegalArgumentException("The convergence window must be positive.");
+            }
+        }
+        if (line.hasOption("force-threads")) {
+            forceThreads = CommandLineOptions.parseInteger(line.getOptionValue("force-threads"));
+            if (forceThreads < 1) {
+                throw new IllegalArgumentException("The number of force threads must be positive.");
+            }
+        }
+        if (line.hasOption("levels")) {
+            levels = CommandLineOptions.parseInteger(line.getOptionValue("levels"));
+            if (levels < 1) {
+                throw new IllegalArgumentException("The number of levels must be positive.");
+            }
+        }
+        if (line.hasOption("level-ratio")) {
+            levelRatio = CommandLineOptions.parseDouble(line.getOptionValue("level-ratio"));
+            if (levelRatio <= 1) {
+                throw new IllegalArgumentException("The level ratio must be greater than one.");
+            }
+        }
+        if (line.hasOption("coarse-iterations")) {
+            coarseIterations = CommandLineOptions.parseInteger(line.getOptionValue("coarse-iterations"));
+            if (coarseIterations < 0) {
+                throw new IllegalArgumentException("The number of coarse iterations cannot be negative.");
+            }
+        }
+        if (line.hasOption("opening-angle")) {
+            openingAngle = CommandLineOptions.parseDouble(line.getOptionValue("opening-angle"));
+            if (openingAngle < 0) {
+                throw new IllegalArgumentException("The opening angle cannot be negative.");
+            }
+        }
+        if (line.hasOption("mov")) {
+            mov = CommandLineOptions.parseBoolean(line.getOptionValue("mov"));
+        }
+        if (line.hasOption("ind")) {
+            ind = CommandLineOptions.parseBoolean(line.getOptionValue("ind"));
+        }
+        if (line.hasOption("sep")) {
+            sep = CommandLineOptions.parseBoolean(line.getOptionValue("sep"));
+        }
+        if (line.hasOption("threads")) {
+            threads = CommandLineOptions.parseInteger(line.getOptionValue("threads"));
+            if (threads < 1) {
+                throw new IllegalArgumentException("The number of threads must be positive.");
+            }
+        }
+        if (line.hasOption("timeout")) {
+            timeout = CommandLineOptions.parseInteger(line.getOptionValue("timeout"));
+            if (timeout < 0) {
+                throw new IllegalArgumentException("The timeout cannot be negative.");
+            }
+        }
+        if (line.hasOption("output")) {
+            outputDir = new File(line.getOptionValue("output"));
+        }
+        elementOverlap = line.hasOption("no-overlap");
+        packedRepulsion = line.hasOption("packed-repulsion");
+        snapshot = line.hasOption("snapshot");
+        profiling = line.hasOption("profile");
+        quality = line.hasOption("quality");
+        deltas = line.hasOption("deltas");
+        if (deltas && outputDir == null) {
+            throw new IllegalArgumentException("The delta frames require an output directory.");
+        }
+    }
+
+    /**
+     * Runs the selected tests, printing their statistics and saving the
+     * smoothed graphs if an output directory has been given.
+     */
+    private void execute() {
+        if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Cannot create directory " + outputDir.getPath() + ".");
+            return;
+        }
+
+        if (outputDir != null) {
+            assignOutputNames();
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Future<SmoothingTest.Statistics>> futures = new ArrayList<>();
+        SmoothingExecutor executor = new SmoothingExecutor(threads);
+        try {
+            while (!tests.isEmpty()) {
+                SmoothingTest test = tests.remove(0);
+                test.reset();
+                applyParameters(test);
+                names.add(test.getName());
+                futures.add(executor.submit(new TestTask(test), timeout, TimeUnit.SECONDS));
+            }
+        } catch (InterruptedException exception) {
+            executor.cancelAll();
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        List<SmoothingTest.Statistics> statistics = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                SmoothingTest.Statistics testStatistics = futures.get(i).get();
+                statistics.add(testStatistics);
+                System.err.println(String.format("%s: %.5f -> %.5f (%.3f s)", testStatistics.name,
+                        testStatistics.initialQuotient, testStatistics.finalQuotient, testStatistics.seconds));
+                if (!testStatistics.topology.isValid()) {
+                    System.err.println(testStatistics.name + ": topology not preserved (" + testStatistics.topology + ").");
+                }
+            } catch (CancellationException exception) {
+                System.err.println(names.get(i) + (timeout > 0 ? ": cancelled after the time limit of " + timeout + " seconds." : ": cancelled."));
+            } catch (ExecutionException exception) {
+                System.err.println(names.get(i) + ": failed (" + exception.getCause() + ").");
+            } catch (InterruptedException exception) {
+                executor.cancelAll();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        executor.cancelAll();
+
+        try {
+            writeStatistics(statistics, System.out);
+            if (outputDir != null) {
+                try (FileWriter writer = new FileWriter(new File(outputDir, statisticsFileName))) {
+                    writeStatistics(statistics, writer);
+                }
+            }
+        } catch (IOException exception) {
+            System.err.println("Cannot write statistics: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Runs a test and saves its smoothed graph if an output directory has
+     * been given.
+     */
+    private class TestTask implements Callable<SmoothingTest.Statistics> {
+
+        private final SmoothingTest test;
+
+        public TestTask(SmoothingTest test) {
+            this.test = test;
+        }
+
+        @Override
+        public SmoothingTest.Statistics call() {
+            SmoothingTest.Statistics statistics = deltas ? measureWithDeltas(test) : test.measure();
+            if (outputDir != null && snapshot) {
+                File file = new File(outputDir, outputFileName(test, DiagramSnapshot.extension));
+                try {
+                    DiagramSnapshot.writeFile(test.graph, file);
+                } catch (IOException exception) {
+                    System.err.println("Cannot write " + file.getPath() + ": " + exception.getMessage());
+                }
+            } else if (outputDir != null) {
+                OcoSaver saver = new OcoSaver();
+                saver.writeFile(test.graph, new File(outputDir, outputFileName(test, ".oco")));
+            }
+            if (test.profiler() != null) {
+                writeProfile(test);
+            }
+            if (test.trackQuality) {
+                writeQuality(test);
+            }
+            return statistics;
+        }
+    }
+
+    /**
+     * Runs a test while saving its delta frames in the output directory. The
+     * positions are quantised to a hundredth of the test distance.
+     *
+     * @param test the test.
+     * @return the statistics of the run.
+     */
+    private SmoothingTest.Statistics measureWithDeltas(SmoothingTest test) {
+        File file = new File(outputDir, outputFileName(test, ".deltas"));
+        OutputStream output;
+        try {
+            output = new BufferedOutputStream(new FileOutputStream(file));
+        } catch (IOException exception) {
+            System.err.println("Cannot write " + file.getPath() + ": " + exception.getMessage());
+            return test.measure();
+        }
+        test.deltaStream = new DeltaStream(test.distance / 100, test.distance / 100);
+        test.deltaStream.subscribe(DeltaStream.outputSink(output));
+        try {
+            return test.measure();
+        } finally {
+            test.deltaStream = null;
+            try {
+                output.close();
+            } catch (IOException exception) {
+                System.err.println("Cannot write " + file.getPath() + ": " + exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Saves the profile of a test in the output directory, or prints it if no
+     * output directory has been given.
+     *
+     * @param test the profiled test.
+     */
+    private void writeProfile(SmoothingTest test) {
+        ImpredProfiler profiler = test.profiler();
+        if (outputDir == null) {
+            System.out.print(test.getName() + "\n" + profiler.report() + "\n");
+            return;
+        }
+        File jsonFile = new File(outputDir, outputFileName(test, ".profile.json"));
+        File csvFile = new File(outputDir, outputFileName(test, ".profile.csv"));
+        try (FileWriter jsonWriter = new FileWriter(jsonFile);
+                FileWriter csvWriter = new FileWriter(csvFile)) {
+            profiler.writeJson(jsonWriter);
+            profiler.writeCsv(csvWriter);
+        } catch (IOException exception) {
+            System.err.println("Cannot write the profile of " + test.getName() + ": " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Saves the quality time series of a test in the output directory, or
+     * prints its final values if no output directory has been given.
+     *
+     * @param test the test.
+     */
+    private void writeQuality(SmoothingTest test) {
+        QualityMetrics metrics = test.qualityMetrics();
+        if (outputDir == null) {
+            QualityMetrics.Sample last = metrics.last();
+            if (last != null) {
+                System.out.println(test.getName() + ": quotient " + last.averageQuotient
+                        + ", minimum clearance " + last.minClearance + ", crossings " + last.crossings);
+            }
+            return;
+        }
+        File csvFile = new File(outputDir, outputFileName(test, ".quality.csv"));
+        try (FileWriter csvWriter = new FileWriter(csvFile)) {
+            metrics.writeCsv(csvWriter);
+        } catch (IOException exception) {
+            System.err.println("Cannot write the quality of " + test.getName() + ": " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Overrides the test parameters with the ones given in the command line.
+     *
+     * @param test the test.
+     */
+    private void applyParameters(SmoothingTest test) {
+        if (distance != null) {
+            test.distance = distance;
+        }
+        if (mov != null) {
+            test.mov = mov;
+        }
+        if (ind != null) {
+            test.ind = ind;
+        }
+        if (sep != null) {
+            test.sep = sep;
+        }
+        if (iterations != null) {
+            test.iterations = iterations;
+        }
+        if (convergenceThreshold != null) {
+            test.convergenceThreshold = convergenceThreshold;
+        }
+        if (convergenceWindow != null) {
+            test.convergenceWindow = convergenceWindow;
+        }
+        if (forceThreads != null) {
+            test.forceThreads = forceThreads;
+        }
+        if (levels != null) {
+            test.levels = levels;
+        }
+        if (levelRatio != null) {
+            test.levelRatio = levelRatio;
+        }
+        if (coarseIterations != null) {
+            test.coarseIterations = coarseIterations;
+        }
+        if (openingAngle != null) {
+            test.openingAngle = openingAngle;
+        }
+        test.elementOverlap = elementOverlap;
+        test.packedRepulsion = packedRepulsion;
+        test.profiling = profiling;
+        test.trackQuality = quality;
+    }
+
+    /**
+     * Writes the statistics in CSV format.
+     *
+     * @param statistics the statistics of the runs.
+     * @param output the output.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeStatistics(List<SmoothingTest.Statistics> statistics, Appendable output) throws IOException {
+        CSVPrinter printer = new CSVPrinter(output, CSVFormat.DEFAULT.withHeader(statisticsHeader));
+        for (SmoothingTest.Statistics testStatistics : statistics) {
+            printer.printRecord(testStatistics.name, testStatistics.iterations,
+                    testStatistics.initialQuotient, testStatistics.finalQuotient, testStatistics.seconds,
+                    testStatistics.topology.violationCount());
+        }
+        printer.flush();
+    }
+
+    /**
+     * Assigns to each test the base name of its output files. Names are
+     * derived from the test names, and those that would collide with an
+     * earlier test, such as files with the same name in different directories,
+     * get a numeric suffix so that no output is overwritten. The comparison
+     * ignores case, as some file systems do.
+     */
+    private void assignOutputNames() {
+        Set<String> used = new HashSet<>();
+        for (SmoothingTest test : tests) {
+            String base = test.getName().replaceAll("\\.oco$", "").replaceAll("[^A-Za-z0-9_\\-]+", "_");
+            String name = base;
+            for (int suffix = 2; !used.add(name.toLowerCase()); suffix++) {
+                name = base + "_" + suffix;
+            }
+            if (!name.equals(base)) {
+                System.err.println(test.getName() + ": output saved as " + name + " to avoid overwriting another test.");
+            }
+            outputNames.put(test, name);
+        }
+    }
+
+    /**
+     * Computes the file name for an output of a test.
+     *
+     * @param test the test.
+     * @param extension the extension of the file.
+     * @return the file name.
+     */
+    private String outputFileName(SmoothingTest test, String extension) {
+        return outputNames.get(test) + extension;
+    }
+}
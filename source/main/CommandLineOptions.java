@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * Helpers shared by the command line tools to declare options, print their
+ * usage and parse their values. The parsers trim the values and report
+ * invalid ones with an IllegalArgumentException whose message can be shown to
+ * the user.
+ */
+final class CommandLineOptions {
+
+    private CommandLineOptions() {
+    }
+
+    /**
+     * Builds an option that requires a value.
+     *
+     * @param name the short name of the option, or null.
+     * @param longName the long name of the option.
+     * @param argName the name of the value.
+     * @param description the option description.
+     * @return the option.
+     */
+    static Option option(String name, String longName, String argName, String description) {
+        Option option = new Option(name, longName, true, description);
+        option.setArgName(argName);
+        return option;
+    }
+
+    /**
+     * Prints the command line usage.
+     *
+     * @param syntax the syntax of the command.
+     * @param options the command line options.
+     */
+    static void printHelp(String syntax, Options options) {
+        new HelpFormatter().printHelp(syntax, options);
+    }
+
+    /**
+     * Prints the command line usage with a description before the options.
+     *
+     * @param syntax the syntax of the command.
+     * @param header the description.
+     * @param options the command line options.
+     */
+    static void printHelp(String syntax, String header, Options options) {
+        new HelpFormatter().printHelp(syntax, header, options, "");
+    }
+
+    /**
+     * Parses a number.
+     *
+     * @param value the value.
+     * @return the number.
+     */
+    static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException exception) {
+            throw new IllegalArgumentException("Invalid number " + value + ".");
+        }
+    }
+
+    /**
+     * Parses an integer.
+     *
+     * @param value the value.
+     * @return the integer.
+     */
+    static int parseInteger(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException exception) {
+            throw new IllegalArgumentException("Invalid integer " + value + ".");
+        }
+    }
+
+    /**
+     * Parses a boolean, which must be either true or false.
+     *
+     * @param value the value.
+     * @return the boolean.
+     */
+    static boolean parseBoolean(String value) {
+        if (value.trim().equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.trim().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid boolean " + value + ", expected true or false.");
+    }
+
+    /**
+     * Parses a comma separated list of numbers.
+     *
+     * @param values the values.
+     * @return the numbers.
+     */
+    static List<Double> parseDoubles(String values) {
+        List<Double> doubles = new ArrayList<>();
+        for (String value : values.split(",")) {
+            doubles.add(parseDouble(value));
+        }
+        return doubles;
+    }
+
+    /**
+     * Parses a comma separated list of integers.
+     *
+     * @param values the values.
+     * @return the integers.
+     */
+    static List<Integer> parseIntegers(String values) {
+        List<Integer> integers = new ArrayList<>();
+        for (String value : values.split(",")) {
+            integers.add(parseInteger(value));
+        }
+        return integers;
+    }
+
+    /**
+     * Parses a comma separated list of booleans.
+     *
+     * @param values the values.
+     * @return the booleans.
+     */
+    static List<Boolean> parseBooleans(String values) {
+        List<Boolean> booleans = new ArrayList<>();
+        for (String value : values.split(",")) {
+            booleans.add(parseBoolean(value));
+        }
+        return booleans;
+    }
+}
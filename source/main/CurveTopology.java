@@ -0,0 +1,255 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.geometry.Polygon;
+import ocotillo.graph.Edge;
+import ocotillo.graph.EdgeAttribute;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute;
+import ocotillo.graph.StdAttribute.ControlPoints;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cyclic order of nodes and edges of the curves of an Euler diagram. A
+ * curve is the edge cycle of a subgraph, or of the whole graph when it has no
+ * subgraphs. The cycles are stored in compressed arrays: the elements of curve
+ * i are found between curveStart[i] and curveStart[i+1] of the node and edge
+ * index arrays.
+ * <p>
+ * The topology is not cached: it should be computed once per run and passed
+ * to the steps that need it, and computed again after the graph is modified.
+ * Flexible edges only change the bends of the mirror graph used by Impred, so
+ * the topology remains valid during the smoothing.
+ */
+public class CurveTopology {
+
+    private final List<Graph> curveGraphs = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Edge> edges = new ArrayList<>();
+    private final int[] curveStart;
+    private final int[] curveNodes;
+    private final int[] curveEdges;
+    private final boolean[] forward;
+
+    /**
+     * Computes the curve topology of a graph.
+     *
+     * @param graph the graph.
+     * @return its curve topology.
+     */
+    public static CurveTopology of(Graph graph) {
+        return new CurveTopology(graph);
+    }
+
+    private CurveTopology(Graph graph) {
+        if (graph.subGraphs().isEmpty()) {
+            curveGraphs.add(graph);
+        }
+        curveGraphs.addAll(graph.subGraphs());
+
+        int total = 0;
+        for (Graph curveGraph : curveGraphs) {
+            total += curveGraph.edgeCount();
+        }
+        curveStart = new int[curveGraphs.size() + 1];
+        curveNodes = new int[total];
+        curveEdges = new int[total];
+        forward = new boolean[total];
+
+        Map<Node, Integer> nodeIndex = new HashMap<>();
+        Map<Edge, Integer> edgeIndex = new HashMap<>();
+        int position = 0;
+        for (int i = 0; i < curveGraphs.size(); i++) {
+            Graph curveGraph = curveGraphs.get(i);
+            curveStart[i] = position;
+
+            Edge currentEdge = curveGraph.edges().iterator().next();
+            Node startingNode = currentEdge.source();
+            Node currentNode = startingNode;
+            while (true) {
+                curveNodes[position] = index(currentNode, nodeIndex, nodes);
+                curveEdges[position] = index(currentEdge, edgeIndex, edges);
+                forward[position] = currentEdge.source() == currentNode;
+                position++;
+                currentNode = currentEdge.otherEnd(currentNode);
+                if (currentNode == startingNode) {
+                    break;
+                }
+                currentEdge = nextEdge(curveGraph, currentNode, currentEdge);
+            }
+        }
+        curveStart[curveGraphs.size()] = position;
+    }
+
+    private static <T> int index(T element, Map<T, Integer> indexMap, List<T> elements) {
+        Integer index = indexMap.get(element);
+        if (index == null) {
+            index = elements.size();
+            indexMap.put(element, index);
+            elements.add(element);
+        }
+        return index;
+    }
+
+    private static Edge nextEdge(Graph graph, Node node, Edge previousEdge) {
+        Iterator<Edge> iterator = graph.inOutEdges(node).iterator();
+        Edge edge = iterator.next();
+        return edge != previousEdge ? edge : iterator.next();
+    }
+
+    /**
+     * Returns the number of curves.
+     *
+     * @return the number of curves.
+     */
+    public int curveCount() {
+        return curveGraphs.size();
+    }
+
+    /**
+     * Returns the graph that contains a curve.
+     *
+     * @param curve the curve index.
+     * @return the subgraph of the curve, or the whole graph.
+     */
+    public Graph curveGraph(int curve) {
+        return curveGraphs.get(curve);
+    }
+
+    /**
+     * Returns the offsets of the curves in the index arrays. The array has a
+     * final entry equal to the total length of the index arrays.
+     *
+     * @return the curve offsets.
+     */
+    public int[] curveStart() {
+        return curveStart;
+    }
+
+    /**
+     * Returns the node indexes of the curves in cyclic order. The node at a
+     * given position is the one from which the edge at the same position is
+     * traversed.
+     *
+     * @return the node indexes.
+     */
+    public int[] curveNodes() {
+        return curveNodes;
+    }
+
+    /**
+     * Returns the edge indexes of the curves in cyclic order.
+     *
+     * @return the edge indexes.
+     */
+    public int[] curveEdges() {
+        return curveEdges;
+    }
+
+    /**
+     * Returns whether each edge is traversed from source to target.
+     *
+     * @return the traversal directions.
+     */
+    public boolean[] forward() {
+        return forward;
+    }
+
+    /**
+     * Returns the node with a given index.
+     *
+     * @param index the node index.
+     * @return the node.
+     */
+    public Node node(int index) {
+        return nodes.get(index);
+    }
+
+    /**
+     * Returns the edge with a given index.
+     *
+     * @param index the edge index.
+     * @return the edge.
+     */
+    public Edge edge(int index) {
+        return edges.get(index);
+    }
+
+    /**
+     * Returns the edges of a curve in cyclic order.
+     *
+     * @param curve the curve index.
+     * @return the curve edges.
+     */
+    public List<Edge> curve(int curve) {
+        List<Edge> curveEdgeList = new ArrayList<>(curveStart[curve + 1] - curveStart[curve]);
+        for (int i = curveStart[curve]; i < curveStart[curve + 1]; i++) {
+            curveEdgeList.add(edges.get(curveEdges[i]));
+        }
+        return curveEdgeList;
+    }
+
+    /**
+     * Returns the edges of all curves in cyclic order.
+     *
+     * @return the curves.
+     */
+    public List<List<Edge>> curves() {
+        List<List<Edge>> curves = new ArrayList<>();
+        for (int i = 0; i < curveCount(); i++) {
+            curves.add(curve(i));
+        }
+        return curves;
+    }
+
+    /**
+     * Builds the polygon of a curve from the current node positions and edge
+     * bends.
+     *
+     * @param curve the curve index.
+     * @return the curve polygon.
+     */
+    public Polygon polygon(int curve) {
+        Graph curveGraph = curveGraphs.get(curve);
+        NodeAttribute<Coordinates> positions = curveGraph.nodeAttribute(StdAttribute.nodePosition);
+        EdgeAttribute<ControlPoints> bends = curveGraph.edgeAttribute(StdAttribute.edgePoints);
+        Polygon polygon = new Polygon();
+        for (int i = curveStart[curve]; i < curveStart[curve + 1]; i++) {
+            Edge edge = edges.get(curveEdges[i]);
+            ControlPoints edgeBends = bends.get(edge);
+            if (forward[i]) {
+                polygon.add(positions.get(edge.source()));
+                polygon.addAll(edgeBends);
+                polygon.add(positions.get(edge.target()));
+            } else {
+                polygon.add(positions.get(edge.target()));
+                for (int j = edgeBends.size() - 1; j >= 0; j--) {
+                    polygon.add(edgeBends.get(j));
+                }
+                polygon.add(positions.get(edge.source()));
+            }
+        }
+        return polygon;
+    }
+}
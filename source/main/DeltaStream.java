@@ -0,0 +1,744 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.extra.BendExplicitGraphSynchroniser.MirrorEdge;
+import ocotillo.graph.layout.fdl.impred.ImpredPostProcessing;
+
+/**
+ * Streams the layout of the mirror graph to the subscribed sinks at every
+ * iteration as compact binary frames. The points of the mirror graph get a
+ * stable index, and their positions are quantised on a grid of the given
+ * quantum. A delta frame contains the points added and removed since the
+ * previous iteration, the points whose quantised position is farther than
+ * epsilon from the last position sent, and the curve edges whose sequence of
+ * points changed. Since the positions sent are the reference for the next
+ * deltas, the small movements accumulate until they are sent and the viewers
+ * never drift. A key frame contains the whole layout, and is sent to new
+ * subscribers, to the sinks that dropped a frame, and to all sinks when a new
+ * Impred instance starts.
+ * <p>
+ * Frames are sequences of unsigned varints, with signed values zigzag
+ * encoded and sorted indices encoded as gaps from the previous one:
+ * <pre>
+ * type (0 delta, 1 key), iteration, [quantum as 8 byte double in key frames],
+ * added count, (index gap, x, y)*,
+ * removed count, (index gap)*,
+ * moved count, (index gap, dx, dy)*,
+ * edge count, (edge gap, point count, (point index delta)*)*
+ * </pre>
+ * The edges are indexed in the order of the smoothed graph, and their points
+ * go from source to target through the bends.
+ */
+public class DeltaStream {
+
+    private static final int deltaFrame = 0;
+    private static final int keyFrame = 1;
+
+    private final double quantum;
+    private final double epsilon;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private int iteration;
+
+    /**
+     * Constructs a stream.
+     *
+     * @param quantum the size of the grid on which the positions are
+     * quantised.
+     * @param epsilon the minimum movement of a point for it to be sent.
+     */
+    public DeltaStream(double quantum, double epsilon) {
+        if (!(quantum > 0)) {
+            throw new IllegalArgumentException("The quantum must be positive.");
+        }
+        this.quantum = quantum;
+        this.epsilon = Math.max(epsilon, 0);
+    }
+
+    /**
+     * Subscribes a sink, which receives a key frame at the next iteration. The
+     * method can be called from any thread.
+     *
+     * @param sink the sink.
+     */
+    public void subscribe(Sink sink) {
+        subscriptions.add(new Subscription(sink));
+    }
+
+    /**
+     * Unsubscribes a sink. The method can be called from any thread.
+     *
+     * @param sink the sink.
+     */
+    public void unsubscribe(Sink sink) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.sink == sink) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Builds the post-processing step that emits the frames of an Impred
+     * instance. A new step is required for each instance, and its first frame
+     * is a key frame. The step should follow the post-processing steps that
+     * modify the layout.
+     *
+     * @param graph the smoothed graph.
+     * @return the post-processing step.
+     */
+    public ImpredPostProcessing observer(Graph graph) {
+        return new Observer(graph);
+    }
+
+    /**
+     * A receiver of frames.
+     */
+    public interface Sink {
+
+        /**
+         * Receives a frame. The sink must not modify it.
+         *
+         * @param frame the frame.
+         * @return true if the frame has been accepted, false if it has been
+         * dropped and the sink needs a key frame to continue.
+         * @throws IOException if the sink failed, in which case it is
+         * unsubscribed.
+         */
+        boolean accept(byte[] frame) throws IOException;
+    }
+
+    /**
+     * Builds a sink that writes the frames on an output stream, such as a
+     * file or a socket, each preceded by its length as a varint. The stream
+     * is flushed after each frame, and can be read back with readFrame.
+     *
+     * @param output the output stream.
+     * @return the sink.
+     */
+    public static Sink outputSink(final OutputStream output) {
+        return new Sink() {
+
+            @Override
+            public boolean accept(byte[] frame) throws IOException {
+                synchronized (output) {
+                    long length = frame.length;
+                    while ((length & ~0x7FL) != 0) {
+                        output.write((int) (length & 0x7F) | 0x80);
+                        length >>>= 7;
+                    }
+                    output.write((int) length);
+                    output.write(frame);
+                    output.flush();
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Builds a sink that offers the frames to a queue. The frames that do not
+     * fit in the queue are dropped, and the consumer receives a key frame as
+     * soon as the queue has room again.
+     *
+     * @param queue the queue.
+     * @return the sink.
+     */
+    public static Sink queueSink(final BlockingQueue<byte[]> queue) {
+        return new Sink() {
+
+            @Override
+            public boolean accept(byte[] frame) {
+                return queue.offer(frame);
+            }
+        };
+    }
+
+    /**
+     * Reads a frame written by an output sink.
+     *
+     * @param input the input stream.
+     * @return the frame, or null at the end of the stream.
+     * @throws IOException if the stream cannot be read or is truncated.
+     */
+    public static byte[] readFrame(InputStream input) throws IOException {
+        int length = 0;
+        for (int shift = 0;; shift += 7) {
+            int next = input.read();
+            if (next < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Truncated frame length.");
+            }
+            if (shift > 28) {
+                throw new IOException("Invalid frame length.");
+            }
+            length |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                break;
+            }
+        }
+        byte[] frame = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = input.read(frame, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated frame.");
+            }
+            read += count;
+        }
+        return frame;
+    }
+
+    /**
+     * Sends a frame to the subscribed sinks, replacing it with the key frame
+     * for the sinks that need one.
+     */
+    private void send(byte[] frame, boolean isKey, Observer observer) {
+        byte[] key = isKey ? frame : null;
+        for (Subscription subscription : subscriptions) {
+            byte[] sent = frame;
+            if (subscription.needsKey && !isKey) {
+                if (key == null) {
+                    key = observer.keyFrame();
+                }
+                sent = key;
+            }
+            try {
+                subscription.needsKey = !subscription.sink.accept(sent);
+            } catch (IOException exception) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    private static class Subscription {
+
+        private final Sink sink;
+        private volatile boolean needsKey = true;
+
+        private Subscription(Sink sink) {
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * Tracks the points and edges sent and emits the frame of each iteration.
+     */
+    private class Observer extends ImpredPostProcessing {
+
+        private final List<Edge> edges;
+        private final Map<Node, Integer> indices = new IdentityHashMap<>();
+        private Node[] points = new Node[64];
+        private long[] sentX = new long[64];
+        private long[] sentY = new long[64];
+        private int[] seen = new int[64];
+        private int pointCount;
+        private int[][] sentEdges;
+        private int[] moved = new int[64];
+        private int[] sequence = new int[16];
+        private boolean stale = true;
+        private int stamp;
+
+        private final Buffer frame = new Buffer();
+        private final Buffer added = new Buffer();
+        private final Buffer removed = new Buffer();
+        private final Buffer movements = new Buffer();
+        private final Buffer changedEdges = new Buffer();
+
+        private Observer(Graph graph) {
+            this.edges = new ArrayList<>(graph.edges());
+        }
+
+        @Override
+        protected void execute() {
+            int frameIteration = iteration++;
+            if (subscriptions.isEmpty()) {
+                stale = true;
+                return;
+            }
+            boolean isKey = stale;
+            if (stale) {
+                indices.clear();
+                Arrays.fill(points, 0, pointCount, null);
+                pointCount = 0;
+                sentEdges = new int[edges.size()][];
+                stale = false;
+            }
+            stamp++;
+
+            NodeAttribute<Coordinates> positions = mirrorPositions();
+            double threshold = epsilon / quantum;
+            int addedCount = 0;
+            int movedCount = 0;
+            int previousAdded = -1;
+            added.clear();
+            for (Node node : mirrorGraph().nodes()) {
+                Coordinates position = positions.get(node);
+                long x = Math.round(position.x() / quantum);
+                long y = Math.round(position.y() / quantum);
+                Integer index = indices.get(node);
+                if (index == null) {
+                    index = add(node, x, y);
+                    added.writeVarint(index - previousAdded - 1);
+                    added.writeSigned(x);
+                    added.writeSigned(y);
+                    previousAdded = index;
+                    addedCount++;
+                } else {
+                    double dx = x - sentX[index];
+                    double dy = y - sentY[index];
+                    if (dx * dx + dy * dy > threshold * threshold) {
+                        if (movedCount == moved.length) {
+                            moved = Arrays.copyOf(moved, movedCount * 2);
+                        }
+                        moved[movedCount++] = index;
+                    }
+                }
+                seen[index] = stamp;
+            }
+
+            removed.clear();
+            int removedCount = 0;
+            int previous = -1;
+            for (int i = 0; i < pointCount; i++) {
+                if (points[i] != null && seen[i] != stamp) {
+                    indices.remove(points[i]);
+                    points[i] = null;
+                    removed.writeVarint(i - previous - 1);
+                    previous = i;
+                    removedCount++;
+                }
+            }
+
+            Arrays.sort(moved, 0, movedCount);
+            movements.clear();
+            previous = -1;
+            for (int k = 0; k < movedCount; k++) {
+                int i = moved[k];
+                Coordinates position = positions.get(points[i]);
+                long x = Math.round(position.x() / quantum);
+                long y = Math.round(position.y() / quantum);
+                movements.writeVarint(i - previous - 1);
+                movements.writeSigned(x - sentX[i]);
+                movements.writeSigned(y - sentY[i]);
+                sentX[i] = x;
+                sentY[i] = y;
+                previous = i;
+            }
+
+            changedEdges.clear();
+            int changedCount = 0;
+            previous = -1;
+            for (int e = 0; e < edges.size(); e++) {
+                int length = pointSequence(edges.get(e));
+                if (length < 0 || (sentEdges[e] != null && sentEdges[e].length == length
+                        && equals(sentEdges[e], sequence, length))) {
+                    continue;
+                }
+                sentEdges[e] = Arrays.copyOf(sequence, length);
+                writeEdge(changedEdges, e - previous - 1, sentEdges[e]);
+                previous = e;
+                changedCount++;
+            }
+
+            frame.clear();
+            frame.writeVarint(isKey ? keyFrame : deltaFrame);
+            frame.writeVarint(frameIteration);
+            if (isKey) {
+                frame.writeDouble(quantum);
+            }
+            frame.writeVarint(addedCount);
+            frame.write(added);
+            frame.writeVarint(removedCount);
+            frame.write(removed);
+            frame.writeVarint(movedCount);
+            frame.write(movements);
+            frame.writeVarint(changedCount);
+            frame.write(changedEdges);
+            send(frame.toByteArray(), isKey, this);
+        }
+
+        /**
+         * Builds the key frame of the positions and edges last sent.
+         */
+        private byte[] keyFrame() {
+            Buffer key = new Buffer();
+            key.writeVarint(keyFrame);
+            key.writeVarint(iteration - 1);
+            key.writeDouble(quantum);
+            key.writeVarint(indices.size());
+            int previous = -1;
+            for (int i = 0; i < pointCount; i++) {
+                if (points[i] != null) {
+                    key.writeVarint(i - previous - 1);
+                    key.writeSigned(sentX[i]);
+                    key.writeSigned(sentY[i]);
+                    previous = i;
+                }
+            }
+            key.writeVarint(0);
+            key.writeVarint(0);
+            int edgeCount = 0;
+            for (int[] sentEdge : sentEdges) {
+                edgeCount += sentEdge != null ? 1 : 0;
+            }
+            key.writeVarint(edgeCount);
+            previous = -1;
+            for (int e = 0; e < sentEdges.length; e++) {
+                if (sentEdges[e] != null) {
+                    writeEdge(key, e - previous - 1, sentEdges[e]);
+                    previous = e;
+                }
+            }
+            return key.toByteArray();
+        }
+
+        private int add(Node node, long x, long y) {
+            if (pointCount == points.length) {
+                int capacity = pointCount * 2;
+                points = Arrays.copyOf(points, capacity);
+                sentX = Arrays.copyOf(sentX, capacity);
+                sentY = Arrays.copyOf(sentY, capacity);
+                seen = Arrays.copyOf(seen, capacity);
+            }
+            int index = pointCount++;
+            points[index] = node;
+            sentX[index] = x;
+            sentY[index] = y;
+            indices.put(node, index);
+            return index;
+        }
+
+        /**
+         * Collects the point indices of an edge in the sequence buffer.
+         *
+         * @return the number of points, or -1 if a point has no index.
+         */
+        private int pointSequence(Edge edge) {
+            MirrorEdge mirrorEdge = synchronizer().getMirrorEdge(edge);
+            if (mirrorEdge == null) {
+                return -1;
+            }
+            List<Node> bends = mirrorEdge.bends();
+            int length = bends.size() + 2;
+            if (sequence.length < length) {
+                sequence = new int[Math.max(length, sequence.length * 2)];
+            }
+            int k = 0;
+            Integer source = indices.get(mirrorEdge.source());
+            if (source == null) {
+                return -1;
+            }
+            sequence[k++] = source;
+            for (Node bend : bends) {
+                Integer index = indices.get(bend);
+                if (index == null) {
+                    return -1;
+                }
+                sequence[k++] = index;
+            }
+            Integer target = indices.get(mirrorEdge.target());
+            if (target == null) {
+                return -1;
+            }
+            sequence[k++] = target;
+            return k;
+        }
+
+        private boolean equals(int[] first, int[] second, int length) {
+            for (int i = 0; i < length; i++) {
+                if (first[i] != second[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void writeEdge(Buffer buffer, int gap, int[] sequence) {
+            buffer.writeVarint(gap);
+            buffer.writeVarint(sequence.length);
+            int previous = 0;
+            for (int index : sequence) {
+                buffer.writeSigned(index - previous);
+                previous = index;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the layout from the frames of a stream.
+     */
+    public static class Decoder {
+
+        private double quantum = Double.NaN;
+        private int iteration = -1;
+        private long[] x = new long[0];
+        private long[] y = new long[0];
+        private boolean[] present = new boolean[0];
+        private int[][] edges = new int[0][];
+        private int position;
+        private byte[] frame;
+
+        /**
+         * Applies a frame. Delta frames are ignored until the first key frame.
+         *
+         * @param frame the frame.
+         * @return true if the frame has been applied.
+         * @throws IllegalArgumentException if the frame is malformed.
+         */
+        public boolean apply(byte[] frame) {
+            this.frame = frame;
+            this.position = 0;
+            try {
+                int type = readInt();
+                if (type != keyFrame && type != deltaFrame) {
+                    throw new IllegalArgumentException("Unknown frame type " + type + ".");
+                }
+                if (type == deltaFrame && Double.isNaN(quantum)) {
+                    return false;
+                }
+                int frameIteration = readInt();
+                if (type == keyFrame) {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (frame[position++] & 0xFF);
+                    }
+                    quantum = Double.longBitsToDouble(bits);
+                    Arrays.fill(present, false);
+                    Arrays.fill(edges, null);
+                }
+                iteration = frameIteration;
+
+                int count = readInt();
+                int index = -1;
+                for (int k = 0; k < count; k++) {
+                    index += readInt() + 1;
+                    ensurePoints(index + 1);
+                    present[index] = true;
+                    x[index] = readSigned();
+                    y[index] = readSigned();
+                }
+                count = readInt();
+                index = -1;
+                for (int k = 0; k < count; k++) {
+                    index += readInt() + 1;
+                    ensurePoints(index + 1);
+                    present[index] = false;
+                }
+                count = readInt();
+                index = -1;
+                for (int k = 0; k < count; k++) {
+                    index += readInt() + 1;
+                    ensurePoints(index + 1);
+                    x[index] += readSigned();
+                    y[index] += readSigned();
+                }
+                count = readInt();
+                int edge = -1;
+                for (int k = 0; k < count; k++) {
+                    edge += readInt() + 1;
+                    if (edge >= edges.length) {
+                        edges = Arrays.copyOf(edges, Math.max(edge + 1, edges.length * 2));
+                    }
+                    int[] sequence = new int[readInt()];
+                    int previous = 0;
+                    for (int i = 0; i < sequence.length; i++) {
+                        previous += (int) readSigned();
+                        sequence[i] = previous;
+                    }
+                    edges[edge] = sequence;
+                }
+                if (position != frame.length) {
+                    throw new IllegalArgumentException("Trailing bytes in frame.");
+                }
+                return true;
+            } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException exception) {
+                throw new IllegalArgumentException("Malformed frame.");
+            } finally {
+                this.frame = null;
+            }
+        }
+
+        private void ensurePoints(int size) {
+            if (size > present.length) {
+                int capacity = Math.max(size, present.length * 2);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                present = Arrays.copyOf(present, capacity);
+            }
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int next = frame[position++];
+                value |= (long) (next & 0x7F) << shift;
+                if ((next & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Invalid varint.");
+        }
+
+        private int readInt() {
+            long value = readVarint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Value out of range.");
+            }
+            return (int) value;
+        }
+
+        private long readSigned() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Returns the iteration of the last frame applied.
+         *
+         * @return the iteration, or -1 if no frame has been applied.
+         */
+        public int iteration() {
+            return iteration;
+        }
+
+        /**
+         * Returns the number of point indices, some of which might be unused.
+         *
+         * @return the number of point indices.
+         */
+        public int pointCapacity() {
+            return present.length;
+        }
+
+        /**
+         * Checks whether a point index is in use.
+         *
+         * @param index the point index.
+         * @return true if the point exists.
+         */
+        public boolean hasPoint(int index) {
+            return index < present.length && present[index];
+        }
+
+        /**
+         * Returns the x coordinate of a point.
+         *
+         * @param index the point index.
+         * @return the x coordinate.
+         */
+        public double x(int index) {
+            return x[index] * quantum;
+        }
+
+        /**
+         * Returns the y coordinate of a point.
+         *
+         * @param index the point index.
+         * @return the y coordinate.
+         */
+        public double y(int index) {
+            return y[index] * quantum;
+        }
+
+        /**
+         * Returns the number of edge indices, some of which might be unused.
+         *
+         * @return the number of edge indices.
+         */
+        public int edgeCapacity() {
+            return edges.length;
+        }
+
+        /**
+         * Returns the point indices of an edge from source to target.
+         *
+         * @param edge the edge index.
+         * @return the point indices, or null if the edge is unknown.
+         */
+        public int[] edge(int edge) {
+            return edge < edges.length ? edges[edge] : null;
+        }
+    }
+
+    /**
+     * Growable byte buffer with varint encoding.
+     */
+    private static class Buffer {
+
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+
+        private void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeSigned(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        private void writeDouble(double value) {
+            ensure(8);
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        private void write(Buffer buffer) {
+            ensure(buffer.size);
+            System.arraycopy(buffer.bytes, 0, bytes, size, buffer.size);
+            size += buffer.size;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
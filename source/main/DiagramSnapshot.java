@@ -0,0 +1,632 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.EdgeAttribute;
+import ocotillo.graph.Element;
+import ocotillo.graph.ElementAttribute;
+import ocotillo.graph.Graph;
+import ocotillo.graph.GraphAttribute;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute.ControlPoints;
+import ocotillo.graph.serialization.oco.OcoConverterSet;
+import ocotillo.graph.serialization.oco.OcoSaver;
+import ocotillo.graph.serialization.oco.OcoValueConverter;
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of an Euler diagram. A snapshot stores the same graph model
+ * of an oco file, but keeps the numeric values in packed little endian arrays
+ * that are read in bulk, without parsing decimal strings.
+ * <p>
+ * The file starts with a magic number and the format version, followed by the
+ * node ids, the edge ids and their end points as node indexes. Then comes the
+ * root graph section, which contains its attributes and, recursively, the
+ * sections of its subgraphs. A subgraph section is preceded by the indexes of
+ * its nodes and edges, so that the curve of a set is stored as two int
+ * arrays. Each attribute stores its name, its value type, the indexes of the
+ * elements with a non default value and the values themselves, default first.
+ * Coordinates, control points and doubles are packed doubles, colours are
+ * packed ARGB ints, and the values of any other type are stored as strings
+ * through their oco converter.
+ */
+public class DiagramSnapshot {
+
+    /**
+     * The extension of the snapshot files.
+     */
+    public static final String extension = ".eds";
+
+    /**
+     * The current version of the format.
+     */
+    public static final short version = 1;
+
+    private static final int magic = 0x45445348;
+    private static final Charset charset = StandardCharsets.UTF_8;
+
+    private static final byte coordinatesType = 1;
+    private static final byte controlPointsType = 2;
+    private static final byte doubleType = 3;
+    private static final byte colorType = 4;
+    private static final byte stringType = 5;
+    private static final byte convertedType = 6;
+
+    private DiagramSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of a graph in a new buffer.
+     *
+     * @param graph the root graph.
+     * @return the buffer, ready to be read or written to a channel.
+     */
+    public static ByteBuffer write(Graph graph) {
+        Output output = new Output();
+        output.putInt(magic);
+        output.putShort(version);
+
+        Map<Node, Integer> nodeIndex = new HashMap<>();
+        Map<Edge, Integer> edgeIndex = new HashMap<>();
+        synchronized (graph) {
+            output.putInt(graph.nodeCount());
+            for (Node node : graph.nodes()) {
+                nodeIndex.put(node, nodeIndex.size());
+                output.putString(node.id());
+            }
+            output.putInt(graph.edgeCount());
+            int[] sources = new int[graph.edgeCount()];
+            int[] targets = new int[graph.edgeCount()];
+            for (Edge edge : graph.edges()) {
+                int index = edgeIndex.size();
+                edgeIndex.put(edge, index);
+                sources[index] = nodeIndex.get(edge.source());
+                targets[index] = nodeIndex.get(edge.target());
+                output.putString(edge.id());
+            }
+            output.putInts(sources, sources.length);
+            output.putInts(targets, targets.length);
+            writeGraph(graph, output, nodeIndex, edgeIndex);
+        }
+
+        ByteBuffer buffer = output.buffer;
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the snapshot of a graph to a file.
+     *
+     * @param graph the root graph.
+     * @param file the snapshot file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeFile(Graph graph, File file) throws IOException {
+        ByteBuffer buffer = write(graph);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a graph from a snapshot. The buffer is read from its current
+     * position.
+     *
+     * @param buffer the buffer containing the snapshot.
+     * @return the graph.
+     */
+    public static Graph read(ByteBuffer buffer) {
+        ByteBuffer input = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (input.remaining() < 6 || input.getInt() != magic) {
+            throw new IllegalArgumentException("The data is not a diagram snapshot.");
+        }
+        short fileVersion = input.getShort();
+        if (fileVersion != version) {
+            throw new IllegalArgumentException("Unsupported diagram snapshot version " + fileVersion + ".");
+        }
+
+        Graph graph = new Graph();
+        Node[] nodes = new Node[input.getInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = graph.newNode(getString(input));
+        }
+        String[] edgeIds = new String[input.getInt()];
+        for (int i = 0; i < edgeIds.length; i++) {
+            edgeIds[i] = getString(input);
+        }
+        int[] sources = getInts(input, edgeIds.length);
+        int[] targets = getInts(input, edgeIds.length);
+        Edge[] edges = new Edge[edgeIds.length];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = graph.newEdge(edgeIds[i], nodes[sources[i]], nodes[targets[i]]);
+        }
+        readGraph(graph, input, nodes, edges);
+        buffer.position(buffer.position() + input.position());
+        return graph;
+    }
+
+    /**
+     * Reads a graph from a snapshot file. The file is mapped in memory and
+     * read directly from the mapping.
+     *
+     * @param file the snapshot file.
+     * @return the graph.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Graph readFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file " + file.getPath() + " is too large to be mapped.");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Converts an oco file to a snapshot.
+     *
+     * @param ocoFile the oco file.
+     * @param snapshotFile the snapshot file.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public static void ocoToSnapshot(File ocoFile, File snapshotFile) throws IOException {
+        writeFile(new OcoMappedReader().readFile(ocoFile), snapshotFile);
+    }
+
+    /**
+     * Converts a snapshot to an oco file.
+     *
+     * @param snapshotFile the snapshot file.
+     * @param ocoFile the oco file.
+     * @throws IOException if a file cannot be read.
+     */
+    public static void snapshotToOco(File snapshotFile, File ocoFile) throws IOException {
+        new OcoSaver().writeFile(readFile(snapshotFile), ocoFile);
+    }
+
+    /**
+     * Writes the attributes and the subgraphs of a graph.
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeGraph(Graph graph, Output output, Map<Node, Integer> nodeIndex, Map<Edge, Integer> edgeIndex) {
+        output.putInt(graph.localGraphAttributes().size());
+        for (Map.Entry<String, GraphAttribute<?>> entry : graph.localGraphAttributes().entrySet()) {
+            List<Object> values = new ArrayList<>();
+            values.add(entry.getValue().get());
+            writeAttribute(entry.getKey(), values, new int[0], output);
+        }
+
+        output.putInt(graph.localNodeAttributes().size());
+        for (Map.Entry<String, NodeAttribute<?>> entry : graph.localNodeAttributes().entrySet()) {
+            writeElementAttribute(entry.getKey(), (ElementAttribute<Node, Object>) (Object) entry.getValue(), nodeIndex, output);
+        }
+
+        output.putInt(graph.localEdgeAttributes().size());
+        for (Map.Entry<String, EdgeAttribute<?>> entry : graph.localEdgeAttributes().entrySet()) {
+            writeElementAttribute(entry.getKey(), (ElementAttribute<Edge, Object>) (Object) entry.getValue(), edgeIndex, output);
+        }
+
+        output.putInt(graph.subGraphs().size());
+        for (Graph subgraph : graph.subGraphs()) {
+            output.putInt(subgraph.nodeCount());
+            int[] nodes = new int[subgraph.nodeCount()];
+            int position = 0;
+            for (Node node : subgraph.nodes()) {
+                nodes[position++] = nodeIndex.get(node);
+            }
+            output.putInts(nodes, nodes.length);
+            output.putInt(subgraph.edgeCount());
+            int[] edges = new int[subgraph.edgeCount()];
+            position = 0;
+            for (Edge edge : subgraph.edges()) {
+                edges[position++] = edgeIndex.get(edge);
+            }
+            output.putInts(edges, edges.length);
+            writeGraph(subgraph, output, nodeIndex, edgeIndex);
+        }
+    }
+
+    private static <K extends Element> void writeElementAttribute(String name, ElementAttribute<K, Object> attribute, Map<K, Integer> index, Output output) {
+        List<Object> values = new ArrayList<>();
+        values.add(attribute.getDefault());
+        List<Integer> elements = new ArrayList<>();
+        for (K element : attribute.nonDefaultElements()) {
+            elements.add(index.get(element));
+            values.add(attribute.get(element));
+        }
+        int[] indexes = new int[elements.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = elements.get(i);
+        }
+        writeAttribute(name, values, indexes, output);
+    }
+
+    /**
+     * Writes an attribute. The first value is the default one, the others
+     * belong to the elements with the given indexes.
+     */
+    private static void writeAttribute(String name, List<Object> values, int[] indexes, Output output) {
+        byte type = valueType(values);
+        output.putString(name);
+        output.putByte(type);
+        output.putInt(indexes.length);
+        output.putInts(indexes, indexes.length);
+
+        switch (type) {
+            case coordinatesType: {
+                int dimension = ((Coordinates) values.get(0)).dim();
+                output.putInt(dimension);
+                double[] packed = new double[values.size() * dimension];
+                int position = 0;
+                for (Object value : values) {
+                    Coordinates coordinates = (Coordinates) value;
+                    for (int i = 0; i < dimension; i++) {
+                        packed[position++] = coordinates.get(i);
+                    }
+                }
+                output.putDoubles(packed, position);
+                break;
+            }
+            case controlPointsType: {
+                int[] sizes = new int[values.size()];
+                int total = 0;
+                for (int i = 0; i < sizes.length; i++) {
+                    sizes[i] = ((ControlPoints) values.get(i)).size();
+                    total += sizes[i];
+                }
+                output.putInts(sizes, sizes.length);
+                double[] packed = new double[total * 2];
+                int position = 0;
+                for (Object value : values) {
+                    for (Coordinates point : (ControlPoints) value) {
+                        packed[position++] = point.x();
+                        packed[position++] = point.y();
+                    }
+                }
+                output.putDoubles(packed, position);
+                break;
+            }
+            case doubleType: {
+                double[] packed = new double[values.size()];
+                for (int i = 0; i < packed.length; i++) {
+                    packed[i] = (Double) values.get(i);
+                }
+                output.putDoubles(packed, packed.length);
+                break;
+            }
+            case colorType: {
+                int[] packed = new int[values.size()];
+                for (int i = 0; i < packed.length; i++) {
+                    packed[i] = ((Color) values.get(i)).getRGB();
+                }
+                output.putInts(packed, packed.length);
+                break;
+            }
+            case stringType:
+                for (Object value : values) {
+                    output.putString((String) value);
+                }
+                break;
+            default: {
+                OcoValueConverter<Object> converter = converter(values.get(0).getClass());
+                if (converter == null) {
+                    throw new IllegalArgumentException("The values of the attribute " + name + " cannot be stored in a diagram snapshot.");
+                }
+                output.putString(converter.typeName());
+                for (Object value : values) {
+                    output.putString(converter.graphLibToOco(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Chooses the encoding of the values of an attribute. Values with a
+     * packed encoding must all have the same class and, for coordinates, the
+     * same dimension. The other values are converted to strings.
+     */
+    private static byte valueType(List<Object> values) {
+        Object first = values.get(0);
+        if (first == null) {
+            return convertedType;
+        }
+        Class<?> valueClass = first.getClass();
+        for (Object value : values) {
+            if (value == null || value.getClass() != valueClass) {
+                return convertedType;
+            }
+        }
+
+        if (valueClass == Coordinates.class) {
+            int dimension = ((Coordinates) first).dim();
+            for (Object value : values) {
+                if (((Coordinates) value).dim() != dimension) {
+                    return convertedType;
+                }
+            }
+            return coordinatesType;
+        } else if (valueClass == ControlPoints.class) {
+            for (Object value : values) {
+                for (Coordinates point : (ControlPoints) value) {
+                    if (point.dim() != 2) {
+                        return convertedType;
+                    }
+                }
+            }
+            return controlPointsType;
+        } else if (valueClass == Double.class) {
+            return doubleType;
+        } else if (valueClass == Color.class) {
+            return colorType;
+        } else if (valueClass == String.class) {
+            return stringType;
+        }
+        return convertedType;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static OcoValueConverter<Object> converter(Class<?> valueClass) {
+        OcoConverterSet converters = new OcoSaver().converters;
+        return converters.contains(valueClass) ? (OcoValueConverter<Object>) converters.get(valueClass) : null;
+    }
+
+    /**
+     * Reads the attributes and the subgraphs of a graph.
+     */
+    private static void readGraph(Graph graph, ByteBuffer input, Node[] nodes, Edge[] edges) {
+        int graphAttributes = input.getInt();
+        for (int i = 0; i < graphAttributes; i++) {
+            String name = getString(input);
+            Object value = readValues(input, name).values[0];
+            if (graph.hasLocalGraphAttribute(name)) {
+                graph.<Object>graphAttribute(name).set(value);
+            } else {
+                graph.newLocalGraphAttribute(name, value);
+            }
+        }
+
+        int nodeAttributes = input.getInt();
+        for (int i = 0; i < nodeAttributes; i++) {
+            String name = getString(input);
+            Values values = readValues(input, name);
+            NodeAttribute<Object> attribute;
+            if (graph.hasLocalNodeAttribute(name)) {
+                attribute = graph.nodeAttribute(name);
+                attribute.setDefault(values.values[0]);
+            } else {
+                attribute = graph.newLocalNodeAttribute(name, values.values[0]);
+            }
+            for (int j = 0; j < values.indexes.length; j++) {
+                attribute.set(nodes[values.indexes[j]], values.values[j + 1]);
+            }
+        }
+
+        int edgeAttributes = input.getInt();
+        for (int i = 0; i < edgeAttributes; i++) {
+            String name = getString(input);
+            Values values = readValues(input, name);
+            EdgeAttribute<Object> attribute;
+            if (graph.hasLocalEdgeAttribute(name)) {
+                attribute = graph.edgeAttribute(name);
+                attribute.setDefault(values.values[0]);
+            } else {
+                attribute = graph.newLocalEdgeAttribute(name, values.values[0]);
+            }
+            for (int j = 0; j < values.indexes.length; j++) {
+                attribute.set(edges[values.indexes[j]], values.values[j + 1]);
+            }
+        }
+
+        int subgraphs = input.getInt();
+        for (int i = 0; i < subgraphs; i++) {
+            int[] nodeIndexes = getInts(input, input.getInt());
+            List<Node> subgraphNodes = new ArrayList<>(nodeIndexes.length);
+            for (int index : nodeIndexes) {
+                subgraphNodes.add(nodes[index]);
+            }
+            int[] edgeIndexes = getInts(input, input.getInt());
+            List<Edge> subgraphEdges = new ArrayList<>(edgeIndexes.length);
+            for (int index : edgeIndexes) {
+                subgraphEdges.add(edges[index]);
+            }
+            readGraph(graph.newSubGraph(subgraphNodes, subgraphEdges), input, nodes, edges);
+        }
+    }
+
+    /**
+     * Reads the values of an attribute, default first, and the indexes of
+     * the elements they belong to.
+     */
+    private static Values readValues(ByteBuffer input, String name) {
+        byte type = input.get();
+        int[] indexes = getInts(input, input.getInt());
+        Object[] values = new Object[indexes.length + 1];
+
+        switch (type) {
+            case coordinatesType: {
+                int dimension = input.getInt();
+                double[] packed = getDoubles(input, values.length * dimension);
+                for (int i = 0; i < values.length; i++) {
+                    if (dimension == 2) {
+                        values[i] = new Coordinates(packed[2 * i], packed[2 * i + 1]);
+                    } else {
+                        Coordinates coordinates = new Coordinates(dimension);
+                        for (int j = 0; j < dimension; j++) {
+                            coordinates.setAt(j, packed[i * dimension + j]);
+                        }
+                        values[i] = coordinates;
+                    }
+                }
+                break;
+            }
+            case controlPointsType: {
+                int[] sizes = getInts(input, values.length);
+                int total = 0;
+                for (int size : sizes) {
+                    total += size;
+                }
+                double[] packed = getDoubles(input, total * 2);
+                int position = 0;
+                for (int i = 0; i < values.length; i++) {
+                    ControlPoints points = new ControlPoints();
+                    for (int j = 0; j < sizes[i]; j++) {
+                        points.add(new Coordinates(packed[position], packed[position + 1]));
+                        position += 2;
+                    }
+                    values[i] = points;
+                }
+                break;
+            }
+            case doubleType: {
+                double[] packed = getDoubles(input, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = packed[i];
+                }
+                break;
+            }
+            case colorType: {
+                int[] packed = getInts(input, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = new Color(packed[i], true);
+                }
+                break;
+            }
+            case stringType:
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = getString(input);
+                }
+                break;
+            case convertedType: {
+                String typeName = getString(input);
+                OcoValueConverter<?> converter = new OcoSaver().converters.get(typeName);
+                if (converter == null) {
+                    throw new IllegalArgumentException("Cannot find a converter for the type " + typeName + " of the attribute " + name + ".");
+                }
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = converter.ocoToGraphLib(getString(input));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value type " + type + " for the attribute " + name + ".");
+        }
+        return new Values(indexes, values);
+    }
+
+    private static String getString(ByteBuffer input) {
+        byte[] bytes = new byte[input.getInt()];
+        input.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    private static int[] getInts(ByteBuffer input, int count) {
+        int[] values = new int[count];
+        input.asIntBuffer().get(values);
+        input.position(input.position() + count * 4);
+        return values;
+    }
+
+    private static double[] getDoubles(ByteBuffer input, int count) {
+        double[] values = new double[count];
+        input.asDoubleBuffer().get(values);
+        input.position(input.position() + count * 8);
+        return values;
+    }
+
+    /**
+     * The values of an attribute read from a snapshot.
+     */
+    private static class Values {
+
+        private final int[] indexes;
+        private final Object[] values;
+
+        public Values(int[] indexes, Object[] values) {
+            this.indexes = indexes;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A little endian buffer that grows as needed.
+     */
+    private static class Output {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+                ByteBuffer larger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        public void putByte(byte value) {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        public void putShort(short value) {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        public void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        public void putString(String value) {
+            byte[] bytes = value.getBytes(charset);
+            ensure(4 + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        public void putInts(int[] values, int count) {
+            ensure(count * 4);
+            buffer.asIntBuffer().put(values, 0, count);
+            buffer.position(buffer.position() + count * 4);
+        }
+
+        public void putDoubles(double[] values, int count) {
+            ensure(count * 8);
+            buffer.asDoubleBuffer().put(values, 0, count);
+            buffer.position(buffer.position() + count * 8);
+        }
+    }
+}
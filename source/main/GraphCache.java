@@ -0,0 +1,269 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.EdgeAttribute;
+import ocotillo.graph.Graph;
+import ocotillo.graph.GraphAttribute;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute.ControlPoints;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the graphs read from oco files or diagram snapshots. Each file is
+ * parsed once with the OcoMappedReader, or the DiagramSnapshot reader for
+ * snapshot files, and the resulting graph is kept as a template that is never
+ * modified. Every request receives a deep copy of the template, so that the
+ * same input can be smoothed many times without reading it again. A template
+ * can also be stored after a preparation step, such as the filling of the
+ * curves, identified by a variant name. Templates are discarded when the file
+ * modification time or size changes, and the least recently used ones are
+ * evicted when the cache is full.
+ */
+public class GraphCache {
+
+    private static final int maxTemplates = 32;
+
+    private static final Map<String, Template> templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+            return size() > maxTemplates;
+        }
+    };
+
+    private GraphCache() {
+    }
+
+    /**
+     * Preparation applied to a freshly read graph before it is stored as a
+     * template.
+     */
+    public interface Preparation {
+
+        /**
+         * Prepares the graph.
+         *
+         * @param graph the graph read from file.
+         */
+        void prepare(Graph graph);
+    }
+
+    /**
+     * Returns a copy of the graph contained in an oco file.
+     *
+     * @param file the oco file.
+     * @return a copy of the graph that can be freely modified.
+     */
+    public static Graph load(File file) {
+        return copy(template(file, "", null));
+    }
+
+    /**
+     * Returns a copy of the graph contained in an oco file after the given
+     * preparation. The preparation is applied only once for each variant.
+     *
+     * @param file the oco file.
+     * @param variant the name that identifies the preparation and its
+     * parameters.
+     * @param preparation the preparation.
+     * @return a copy of the prepared graph that can be freely modified.
+     */
+    public static Graph load(File file, String variant, Preparation preparation) {
+        return copy(template(file, variant, preparation));
+    }
+
+    /**
+     * Discards all the templates.
+     */
+    public static synchronized void clear() {
+        templates.clear();
+    }
+
+    /**
+     * Returns the template of a file variant, reading and preparing it if not
+     * cached or outdated.
+     *
+     * @param file the oco file.
+     * @param variant the variant name, or an empty string for the plain file.
+     * @param preparation the preparation, or null for the plain file.
+     * @return the template.
+     */
+    private static synchronized Graph template(File file, String variant, Preparation preparation) {
+        String key = canonicalPath(file) + "#" + variant;
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        Template template = templates.get(key);
+        if (template == null || template.lastModified != lastModified || template.length != length) {
+            Graph graph;
+            if (preparation == null) {
+                graph = read(file);
+            } else {
+                graph = copy(template(file, "", null));
+                preparation.prepare(graph);
+            }
+            template = new Template(graph, lastModified, length);
+            templates.put(key, template);
+        }
+        return template.graph;
+    }
+
+    private static Graph read(File file) {
+        try {
+            if (file.getName().endsWith(DiagramSnapshot.extension)) {
+                return DiagramSnapshot.readFile(file);
+            }
+            return new OcoMappedReader().readFile(file);
+        } catch (IOException exception) {
+            throw new IllegalStateException("The file " + file.getName() + " is not readable.", exception);
+        }
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException exception) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Builds a deep copy of a graph, including its subgraphs and attributes.
+     * Coordinates and control points are copied, while the other attribute
+     * values supported by the oco format are immutable and are shared.
+     *
+     * @param source the graph to copy.
+     * @return the copy.
+     */
+    public static Graph copy(Graph source) {
+        Graph target = new Graph();
+        Map<Node, Node> nodeMap = new HashMap<>();
+        Map<Edge, Edge> edgeMap = new HashMap<>();
+        synchronized (source) {
+            for (Node node : source.nodes()) {
+                nodeMap.put(node, target.newNode(node.id()));
+            }
+            for (Edge edge : source.edges()) {
+                edgeMap.put(edge, target.newEdge(edge.id(), nodeMap.get(edge.source()), nodeMap.get(edge.target())));
+            }
+            copyContent(source, target, nodeMap, edgeMap);
+        }
+        return target;
+    }
+
+    private static void copyContent(Graph source, Graph target, Map<Node, Node> nodeMap, Map<Edge, Edge> edgeMap) {
+        copyAttributes(source, target, nodeMap, edgeMap);
+        for (Graph sourceSubgraph : source.subGraphs()) {
+            List<Node> nodes = new ArrayList<>();
+            for (Node node : sourceSubgraph.nodes()) {
+                nodes.add(nodeMap.get(node));
+            }
+            List<Edge> edges = new ArrayList<>();
+            for (Edge edge : sourceSubgraph.edges()) {
+                edges.add(edgeMap.get(edge));
+            }
+            Graph targetSubgraph = target.newSubGraph(nodes, edges);
+            copyContent(sourceSubgraph, targetSubgraph, nodeMap, edgeMap);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void copyAttributes(Graph source, Graph target, Map<Node, Node> nodeMap, Map<Edge, Edge> edgeMap) {
+        for (Map.Entry<String, GraphAttribute<?>> entry : source.localGraphAttributes().entrySet()) {
+            GraphAttribute<Object> sourceAttribute = (GraphAttribute<Object>) entry.getValue();
+            GraphAttribute<Object> targetAttribute;
+            if (target.hasLocalGraphAttribute(entry.getKey())) {
+                targetAttribute = target.graphAttribute(entry.getKey());
+                targetAttribute.set(copyValue(sourceAttribute.get()));
+            } else {
+                targetAttribute = target.newLocalGraphAttribute(entry.getKey(), copyValue(sourceAttribute.get()));
+            }
+            targetAttribute.setDescription(sourceAttribute.getDescription());
+        }
+
+        for (Map.Entry<String, NodeAttribute<?>> entry : source.localNodeAttributes().entrySet()) {
+            NodeAttribute<Object> sourceAttribute = (NodeAttribute<Object>) entry.getValue();
+            NodeAttribute<Object> targetAttribute;
+            if (target.hasLocalNodeAttribute(entry.getKey())) {
+                targetAttribute = target.nodeAttribute(entry.getKey());
+                targetAttribute.setDefault(copyValue(sourceAttribute.getDefault()));
+            } else {
+                targetAttribute = target.newLocalNodeAttribute(entry.getKey(), copyValue(sourceAttribute.getDefault()));
+            }
+            targetAttribute.setDescription(sourceAttribute.getDescription());
+            for (Node node : sourceAttribute.nonDefaultElements()) {
+                targetAttribute.set(nodeMap.get(node), copyValue(sourceAttribute.get(node)));
+            }
+        }
+
+        for (Map.Entry<String, EdgeAttribute<?>> entry : source.localEdgeAttributes().entrySet()) {
+            EdgeAttribute<Object> sourceAttribute = (EdgeAttribute<Object>) entry.getValue();
+            EdgeAttribute<Object> targetAttribute;
+            if (target.hasLocalEdgeAttribute(entry.getKey())) {
+                targetAttribute = target.edgeAttribute(entry.getKey());
+                targetAttribute.setDefault(copyValue(sourceAttribute.getDefault()));
+            } else {
+                targetAttribute = target.newLocalEdgeAttribute(entry.getKey(), copyValue(sourceAttribute.getDefault()));
+            }
+            targetAttribute.setDescription(sourceAttribute.getDescription());
+            for (Edge edge : sourceAttribute.nonDefaultElements()) {
+                targetAttribute.set(edgeMap.get(edge), copyValue(sourceAttribute.get(edge)));
+            }
+        }
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Coordinates) {
+            return new Coordinates((Coordinates) value);
+        }
+        if (value instanceof ControlPoints) {
+            ControlPoints points = new ControlPoints();
+            for (Coordinates point : (ControlPoints) value) {
+                points.add(new Coordinates(point));
+            }
+            return points;
+        }
+        return value;
+    }
+
+    /**
+     * A cached graph with the state of the file it was read from.
+     */
+    private static class Template {
+
+        private final Graph graph;
+        private final long lastModified;
+        private final long length;
+
+        public Template(Graph graph, long lastModified, long length) {
+            this.graph = graph;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.layout.fdl.impred.Impred;
+import ocotillo.graph.layout.fdl.impred.ImpredConstraint;
+import ocotillo.graph.layout.fdl.impred.ImpredElement;
+import ocotillo.graph.layout.fdl.impred.ImpredForce;
+import ocotillo.graph.layout.fdl.impred.ImpredPostProcessing;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Profiler of the stages of an Impred run. Forces, constraints and
+ * post-processing steps are wrapped before being given to the Impred builder,
+ * and each wrapper records the duration of every call and the bytes allocated
+ * by the calling thread. The time spent by Impred outside the wrapped stages
+ * between start and stop, such as moving the nodes and rebuilding the
+ * locator, is reported as a separate entry with a single call.
+ * <p>
+ * The wrapped elements are invoked through reflection, as their methods are
+ * only accessible to the Impred package. The allocations of the threads used
+ * by the parallel forces are not included.
+ */
+public class ImpredProfiler {
+
+    private static final String[] csvHeader = {"stage", "kind", "calls", "total ms", "mean us", "max us", "allocated bytes", "bytes/call"};
+
+    private static final Method attachTo = method(ImpredElement.class, "attachTo", Impred.class);
+    private static final Method computeForces = method(ImpredForce.class, "computeForces");
+    private static final Method computeConstraints = method(ImpredConstraint.class, "computeConstraints");
+    private static final Method execute = method(ImpredPostProcessing.class, "execute");
+
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final List<Stage> stages = new ArrayList<>();
+    private final Map<String, Integer> nameCounts = new HashMap<>();
+    private final Stage run;
+
+    /**
+     * Constructs a profiler with no stages.
+     */
+    public ImpredProfiler() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        run = new Stage("Impred (other)", "impred");
+    }
+
+    /**
+     * Wraps a force so that its calls are profiled.
+     *
+     * @param force the force.
+     * @return the profiled force.
+     */
+    public ImpredForce force(ImpredForce force) {
+        return new ProfiledForce(force, newStage(force, "force"));
+    }
+
+    /**
+     * Wraps a constraint so that its calls are profiled.
+     *
+     * @param constraint the constraint.
+     * @return the profiled constraint.
+     */
+    public ImpredConstraint constraint(ImpredConstraint constraint) {
+        return new ProfiledConstraint(constraint, newStage(constraint, "constraint"));
+    }
+
+    /**
+     * Wraps a post-processing step so that its calls are profiled.
+     *
+     * @param postProcessing the post-processing step.
+     * @return the profiled post-processing step.
+     */
+    public ImpredPostProcessing postProcessing(ImpredPostProcessing postProcessing) {
+        return new ProfiledPostProcessing(postProcessing, newStage(postProcessing, "post-processing"));
+    }
+
+    /**
+     * Starts measuring a run. The time and allocations between start and stop
+     * that do not belong to any stage are attributed to Impred.
+     */
+    public void start() {
+        run.start();
+    }
+
+    /**
+     * Stops measuring a run.
+     */
+    public void stop() {
+        run.stop();
+    }
+
+    private Stage newStage(ImpredElement element, String kind) {
+        String name = element.getClass().getSimpleName();
+        if (name.isEmpty()) {
+            name = element.getClass().getName();
+        }
+        Integer count = nameCounts.get(name);
+        nameCounts.put(name, count == null ? 1 : count + 1);
+        if (count != null) {
+            name = name + " #" + (count + 1);
+        }
+        Stage stage = new Stage(name, kind);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Returns the profiled stages in registration order, followed by the
+     * entry for the time spent by Impred outside them.
+     *
+     * @return the stages.
+     */
+    public List<Stage> stages() {
+        List<Stage> allStages = new ArrayList<>(stages);
+        long stageNanos = 0;
+        long stageBytes = 0;
+        for (Stage stage : stages) {
+            stageNanos += stage.totalNanos();
+            stageBytes += stage.allocatedBytes();
+        }
+        Stage other = new Stage(run.name, run.kind);
+        if (run.calls > 0) {
+            other.totalNanos = Math.max(0, run.totalNanos - stageNanos);
+            other.maxNanos = other.totalNanos;
+            other.nanos[0] = other.totalNanos;
+            other.calls = 1;
+            other.allocatedBytes = Math.max(0, run.allocatedBytes - stageBytes);
+        }
+        allStages.add(other);
+        return Collections.unmodifiableList(allStages);
+    }
+
+    /**
+     * Returns the total duration of the profiled runs.
+     *
+     * @return the total nanoseconds.
+     */
+    public long totalNanos() {
+        return run.totalNanos;
+    }
+
+    /**
+     * Builds a human readable report of the profiled stages.
+     *
+     * @return the report.
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-30s %-16s %8s %10s %6s %10s %10s %10s%n",
+                "Stage", "Kind", "Calls", "Total ms", "%", "Mean us", "Max us", "Alloc MB"));
+        for (Stage stage : stages()) {
+            double share = totalNanos() > 0 ? 100.0 * stage.totalNanos() / totalNanos() : 0;
+            builder.append(String.format("%-30s %-16s %8d %10.1f %6.1f %10.1f %10.1f %10.2f%n",
+                    stage.name(), stage.kind(), stage.calls(), stage.totalNanos() / 1e6, share,
+                    stage.meanNanos() / 1e3, stage.maxNanos() / 1e3, stage.allocatedBytes() / 1e6));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the stage summaries in CSV format.
+     *
+     * @param output the destination.
+     * @throws IOException if the output cannot be written.
+     */
+    public void writeCsv(Appendable output) throws IOException {
+        CSVPrinter printer = new CSVPrinter(output, CSVFormat.DEFAULT.withHeader(csvHeader));
+        for (Stage stage : stages()) {
+            printer.printRecord(stage.name(), stage.kind(), stage.calls(), stage.totalNanos() / 1e6,
+                    stage.meanNanos() / 1e3, stage.maxNanos() / 1e3, stage.allocatedBytes(),
+                    stage.calls() > 0 ? stage.allocatedBytes() / stage.calls() : 0);
+        }
+        printer.flush();
+    }
+
+    /**
+     * Writes the stage summaries and the duration of every call in JSON
+     * format.
+     *
+     * @param output the destination.
+     * @throws IOException if the output cannot be written.
+     */
+    public void writeJson(Appendable output) throws IOException {
+        output.append("{\n  \"totalNanos\": ").append(Long.toString(totalNanos())).append(",\n  \"stages\": [");
+        List<Stage> allStages = stages();
+        for (int i = 0; i < allStages.size(); i++) {
+            Stage stage = allStages.get(i);
+            output.append(i == 0 ? "\n" : ",\n");
+            output.append("    {\"name\": ").append(jsonString(stage.name()))
+                    .append(", \"kind\": ").append(jsonString(stage.kind()))
+                    .append(", \"calls\": ").append(Integer.toString(stage.calls()))
+                    .append(", \"totalNanos\": ").append(Long.toString(stage.totalNanos()))
+                    .append(", \"maxNanos\": ").append(Long.toString(stage.maxNanos()))
+                    .append(", \"allocatedBytes\": ").append(Long.toString(stage.allocatedBytes()))
+                    .append(", \"callNanos\": [");
+            long[] callNanos = stage.callNanos();
+            for (int j = 0; j < callNanos.length; j++) {
+                if (j > 0) {
+                    output.append(", ");
+                }
+                output.append(Long.toString(callNanos[j]));
+            }
+            output.append("]}");
+        }
+        output.append("\n  ]\n}\n");
+    }
+
+    private static String jsonString(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * The measurements of a profiled stage.
+     */
+    public class Stage {
+
+        private final String name;
+        private final String kind;
+        private long[] nanos = new long[64];
+        private int calls;
+        private long totalNanos;
+        private long maxNanos;
+        private long allocatedBytes;
+        private long startTime;
+        private long startBytes;
+
+        private Stage(String name, String kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        private void start() {
+            startBytes = currentAllocatedBytes();
+            startTime = System.nanoTime();
+        }
+
+        private void stop() {
+            long duration = System.nanoTime() - startTime;
+            allocatedBytes += currentAllocatedBytes() - startBytes;
+            if (calls == nanos.length) {
+                nanos = Arrays.copyOf(nanos, calls * 2);
+            }
+            nanos[calls++] = duration;
+            totalNanos += duration;
+            maxNanos = Math.max(maxNanos, duration);
+        }
+
+        private long currentAllocatedBytes() {
+            return allocationBean != null ? allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String kind() {
+            return kind;
+        }
+
+        public int calls() {
+            return calls;
+        }
+
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        public double meanNanos() {
+            return calls > 0 ? (double) totalNanos / calls : 0;
+        }
+
+        public long allocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns the duration of each call, which for the wrapped stages
+         * corresponds to an Impred iteration.
+         *
+         * @return the nanoseconds of each call.
+         */
+        public long[] callNanos() {
+            return Arrays.copyOf(nanos, calls);
+        }
+    }
+
+    private class ProfiledForce extends ImpredForce {
+
+        private final ImpredForce force;
+        private final Stage stage;
+
+        public ProfiledForce(ImpredForce force, Stage stage) {
+            this.force = force;
+            this.stage = stage;
+        }
+
+        @Override
+        protected void attachTo(Impred impred) {
+            super.attachTo(impred);
+            invoke(attachTo, force, impred);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected NodeAttribute<Coordinates> computeForces() {
+            stage.start();
+            try {
+                return (NodeAttribute<Coordinates>) invoke(computeForces, force);
+            } finally {
+                stage.stop();
+            }
+        }
+    }
+
+    private class ProfiledConstraint extends ImpredConstraint {
+
+        private final ImpredConstraint constraint;
+        private final Stage stage;
+
+        public ProfiledConstraint(ImpredConstraint constraint, Stage stage) {
+            this.constraint = constraint;
+            this.stage = stage;
+        }
+
+        @Override
+        protected void attachTo(Impred impred) {
+            super.attachTo(impred);
+            invoke(attachTo, constraint, impred);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected NodeAttribute<Double> computeConstraints() {
+            stage.start();
+            try {
+                return (NodeAttribute<Double>) invoke(computeConstraints, constraint);
+            } finally {
+                stage.stop();
+            }
+        }
+    }
+
+    private class ProfiledPostProcessing extends ImpredPostProcessing {
+
+        private final ImpredPostProcessing postProcessing;
+        private final Stage stage;
+
+        public ProfiledPostProcessing(ImpredPostProcessing postProcessing, Stage stage) {
+            this.postProcessing = postProcessing;
+            this.stage = stage;
+        }
+
+        @Override
+        protected void attachTo(Impred impred) {
+            super.attachTo(impred);
+            invoke(attachTo, postProcessing, impred);
+        }
+
+        @Override
+        protected void execute() {
+            stage.start();
+            try {
+                invoke(execute, postProcessing);
+            } finally {
+                stage.stop();
+            }
+        }
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException exception) {
+            throw new IllegalStateException("Impred does not provide the method " + name + ".", exception);
+        }
+    }
+
+    /**
+     * Invokes a method of a wrapped element, propagating its unchecked
+     * exceptions unchanged.
+     */
+    private static Object invoke(Method method, Object target, Object... arguments) {
+        try {
+            return method.invoke(target, arguments);
+        } catch (IllegalAccessException exception) {
+            throw new IllegalStateException(exception);
+        } catch (InvocationTargetException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
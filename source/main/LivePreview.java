@@ -0,0 +1,210 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.EdgeAttribute;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute;
+import ocotillo.graph.StdAttribute.ControlPoints;
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.Timer;
+
+/**
+ * Shows the layout of a graph while it is smoothed by another thread. The
+ * preview owns a copy of the graph, which is only modified on the event
+ * dispatch thread. The smoothing thread publishes immutable frames with the
+ * node positions and edge bends, and the preview applies the latest one at
+ * the display refresh rate, dropping the frames published in between.
+ */
+public class LivePreview {
+
+    private static final int defaultRefreshRate = 60;
+
+    private final Graph source;
+    private final Graph graph;
+    private final List<Node> sourceNodes = new ArrayList<>();
+    private final List<Edge> sourceEdges = new ArrayList<>();
+    private final List<Node> previewNodes = new ArrayList<>();
+    private final List<Edge> previewEdges = new ArrayList<>();
+    private final AtomicReference<Frame> latest = new AtomicReference<>();
+    private final long frameInterval;
+    private final Timer timer;
+    private long lastPublish;
+    private SmoothingTest.RegionFiller regionFiller;
+
+    /**
+     * Constructs a preview of a graph. The graph is copied, so the preview
+     * must be created before the smoothing starts.
+     *
+     * @param source the graph that will be smoothed.
+     */
+    public LivePreview(Graph source) {
+        this.source = source;
+        this.graph = GraphCache.copy(source);
+        for (Node node : source.nodes()) {
+            sourceNodes.add(node);
+            previewNodes.add(graph.getNode(node.id()));
+        }
+        for (Edge edge : source.edges()) {
+            sourceEdges.add(edge);
+            previewEdges.add(graph.getEdge(edge.id()));
+        }
+        int refreshInterval = Math.max(1, 1000 / refreshRate());
+        this.frameInterval = refreshInterval * 1000000L;
+        this.timer = new Timer(refreshInterval, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                apply();
+            }
+        });
+        this.timer.setCoalesce(true);
+    }
+
+    private static int refreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return defaultRefreshRate;
+        }
+        int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return rate != DisplayMode.REFRESH_RATE_UNKNOWN ? rate : defaultRefreshRate;
+    }
+
+    /**
+     * Returns the graph shown by the preview. The graph must only be accessed
+     * from the event dispatch thread.
+     *
+     * @return the preview graph.
+     */
+    public Graph graph() {
+        return graph;
+    }
+
+    /**
+     * Starts refreshing the preview graph.
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops refreshing the preview graph.
+     */
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Checks whether a display refresh passed since the last published frame.
+     * Called by the smoothing thread.
+     *
+     * @return true if a new frame should be published.
+     */
+    public boolean isDue() {
+        return System.nanoTime() - lastPublish >= frameInterval;
+    }
+
+    /**
+     * Publishes the current layout of the smoothed graph. Called by the
+     * smoothing thread, which is the only one modifying the graph.
+     *
+     * @param boundaryWidth the width of the region boundaries, or a
+     * non-positive value if the regions should not be filled.
+     */
+    public void publish(double boundaryWidth) {
+        NodeAttribute<Coordinates> positions = source.nodeAttribute(StdAttribute.nodePosition);
+        EdgeAttribute<ControlPoints> edgePoints = source.edgeAttribute(StdAttribute.edgePoints);
+        double[] nodeCoordinates = new double[sourceNodes.size() * 2];
+        for (int i = 0; i < sourceNodes.size(); i++) {
+            Coordinates position = positions.get(sourceNodes.get(i));
+            nodeCoordinates[2 * i] = position.x();
+            nodeCoordinates[2 * i + 1] = position.y();
+        }
+        double[][] bendCoordinates = new double[sourceEdges.size()][];
+        for (int i = 0; i < sourceEdges.size(); i++) {
+            ControlPoints bends = edgePoints.get(sourceEdges.get(i));
+            bendCoordinates[i] = new double[bends.size() * 2];
+            for (int j = 0; j < bends.size(); j++) {
+                bendCoordinates[i][2 * j] = bends.get(j).x();
+                bendCoordinates[i][2 * j + 1] = bends.get(j).y();
+            }
+        }
+        latest.set(new Frame(nodeCoordinates, bendCoordinates, boundaryWidth));
+        lastPublish = System.nanoTime();
+    }
+
+    /**
+     * Applies the latest published frame to the preview graph.
+     */
+    private void apply() {
+        Frame frame = latest.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+        NodeAttribute<Coordinates> positions = graph.nodeAttribute(StdAttribute.nodePosition);
+        EdgeAttribute<ControlPoints> edgePoints = graph.edgeAttribute(StdAttribute.edgePoints);
+        positions.startBulkNotification();
+        edgePoints.startBulkNotification();
+        for (int i = 0; i < previewNodes.size(); i++) {
+            positions.set(previewNodes.get(i), new Coordinates(frame.nodeCoordinates[2 * i], frame.nodeCoordinates[2 * i + 1]));
+        }
+        for (int i = 0; i < previewEdges.size(); i++) {
+            double[] coordinates = frame.bendCoordinates[i];
+            List<Coordinates> bends = new ArrayList<>(coordinates.length / 2);
+            for (int j = 0; j < coordinates.length; j += 2) {
+                bends.add(new Coordinates(coordinates[j], coordinates[j + 1]));
+            }
+            edgePoints.set(previewEdges.get(i), new ControlPoints(bends));
+        }
+        positions.stopBulkNotification();
+        edgePoints.stopBulkNotification();
+        if (frame.boundaryWidth > 0) {
+            regionFiller(frame.boundaryWidth).fill();
+        }
+    }
+
+    private SmoothingTest.RegionFiller regionFiller(double boundaryWidth) {
+        if (regionFiller == null || regionFiller.boundaryWidth() != boundaryWidth) {
+            regionFiller = new SmoothingTest.RegionFiller(graph, boundaryWidth);
+        }
+        return regionFiller;
+    }
+
+    /**
+     * A layout published by the smoothing thread.
+     */
+    private static class Frame {
+
+        private final double[] nodeCoordinates;
+        private final double[][] bendCoordinates;
+        private final double boundaryWidth;
+
+        private Frame(double[] nodeCoordinates, double[][] bendCoordinates, double boundaryWidth) {
+            this.nodeCoordinates = nodeCoordinates;
+            this.bendCoordinates = bendCoordinates;
+            this.boundaryWidth = boundaryWidth;
+        }
+    }
+}
@@ -15,9 +15,19 @@
  */
 package main;
 
+import java.util.Arrays;
+
 public class MainApplication {
 
     public static void main(String[] args) {
-        SmoothingTestGui.showGui();
+        if (args.length > 0 && args[0].equals("sweep")) {
+            ParameterSweep.run(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && args[0].equals("serve")) {
+            SmoothingServer.run(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0) {
+            BatchSmoothing.run(args);
+        } else {
+            SmoothingTestGui.showGui();
+        }
     }
 }
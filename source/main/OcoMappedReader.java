@@ -0,0 +1,635 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Element;
+import ocotillo.graph.ElementAttribute;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.Rules;
+import ocotillo.graph.StdAttribute;
+import ocotillo.graph.StdAttribute.ControlPoints;
+import ocotillo.graph.serialization.oco.OcoConverterSet;
+import ocotillo.graph.serialization.oco.OcoSaver;
+import ocotillo.graph.serialization.oco.OcoValueConverter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+
+/**
+ * Reader for oco files that maps the file in memory and builds the graph in a
+ * single pass over its bytes. Coordinates, control points and doubles are
+ * parsed directly from the mapped bytes, while the other values and the
+ * element ids go through the standard oco converters. The resulting graph is
+ * the same as the one produced by OcoSaver, which remains the reference for
+ * the format. Files larger than 2 GB cannot be mapped in a single buffer and
+ * are not supported.
+ */
+public class OcoMappedReader {
+
+    private static final double[] powersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long maxExactMantissa = 1L << 53;
+
+    private final OcoConverterSet converters;
+
+    /**
+     * Constructs a reader with the standard oco converters.
+     */
+    public OcoMappedReader() {
+        this(new OcoSaver().converters);
+    }
+
+    /**
+     * Constructs a reader with the given converters.
+     *
+     * @param converters the converters for the attribute values.
+     */
+    public OcoMappedReader(OcoConverterSet converters) {
+        this.converters = converters;
+    }
+
+    /**
+     * Reads a graph from an oco file.
+     *
+     * @param file the oco file.
+     * @return the graph.
+     * @throws IOException if the file cannot be read.
+     */
+    public Graph readFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The file " + file.getPath() + " is too large to be mapped.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new Parser(buffer).parse();
+        }
+    }
+
+    /**
+     * Exception thrown when the file does not respect the oco format.
+     */
+    public static class MalformedFileException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public MalformedFileException(int lineNumber, String message) {
+            super("Malformed oco file at line " + lineNumber + ": " + message);
+        }
+    }
+
+    private enum BlockType {
+
+        graph, nodes, edges
+    }
+
+    private enum ValueType {
+
+        coordinates, controlPoints, real, other
+    }
+
+    /**
+     * The parsing state of a single file.
+     */
+    private class Parser {
+
+        private final MappedByteBuffer buffer;
+        private final int limit;
+        private final Charset charset = Charset.defaultCharset();
+        private final LinkedList<Graph> graphs = new LinkedList<>();
+        private byte[] scratch = new byte[256];
+        private int[] cellStarts = new int[16];
+        private int[] cellEnds = new int[16];
+        private int cellCount;
+
+        private int position;
+        private int lineStart;
+        private int lineEnd;
+        private int lineNumber;
+
+        private BlockType blockType;
+        private int headerLine;
+        private Graph graph;
+        private boolean isRoot;
+        private String[] attributeNames = {"@attribute"};
+        private String[] attributeTypes = {"@type"};
+        private String[] attributeDefaults = {"@default"};
+        private int attributeNamesLine;
+        private int attributeTypesLine;
+        private int attributeDefaultsLine;
+        private boolean definitionsClosed;
+        private int firstAttribute;
+        private ElementAttribute<Element, Object>[] attributes;
+        private OcoValueConverter<?>[] columnConverters;
+        private ValueType[] valueTypes;
+
+        public Parser(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+        }
+
+        public Graph parse() {
+            while (nextLine()) {
+                if (lineStart == lineEnd) {
+                    continue;
+                }
+                byte first = buffer.get(lineStart);
+                if (first == '#') {
+                    closeBlock();
+                    openBlock(lineString());
+                } else if (blockType == null) {
+                    continue;
+                } else if (first == '@' && !definitionsClosed) {
+                    parseDefinition(lineString());
+                } else {
+                    parseRow();
+                }
+            }
+            closeBlock();
+            if (graphs.isEmpty()) {
+                throw new MalformedFileException(lineNumber, "the file does not contain any graph.");
+            }
+            return graphs.peekLast();
+        }
+
+        /**
+         * Moves to the next line, using the same terminators of
+         * BufferedReader, and trims it.
+         *
+         * @return false if the end of the file has been reached.
+         */
+        private boolean nextLine() {
+            if (position >= limit) {
+                return false;
+            }
+            int start = position;
+            int end = start;
+            while (end < limit) {
+                byte current = buffer.get(end);
+                if (current == '\n' || current == '\r') {
+                    break;
+                }
+                end++;
+            }
+            position = end + 1;
+            if (end < limit && buffer.get(end) == '\r' && position < limit && buffer.get(position) == '\n') {
+                position++;
+            }
+            lineNumber++;
+
+            while (start < end && isWhitespace(buffer.get(start))) {
+                start++;
+            }
+            while (end > start && isWhitespace(buffer.get(end - 1))) {
+                end--;
+            }
+            lineStart = start;
+            lineEnd = end;
+            return true;
+        }
+
+        private void openBlock(String header) {
+            BlockType expected = blockType;
+            if (header.equals("#nodes") && expected == BlockType.graph) {
+                blockType = BlockType.nodes;
+            } else if (header.equals("#edges") && (expected == BlockType.graph || expected == BlockType.nodes)) {
+                if (expected == BlockType.graph) {
+                    throw new MalformedFileException(lineNumber, "it is not possible to define graph edges without defining its nodes.");
+                }
+                blockType = BlockType.edges;
+            } else if (header.matches("#+graph")) {
+                blockType = BlockType.graph;
+            } else {
+                throw new MalformedFileException(lineNumber, "this should be a graph block, but it is not.");
+            }
+            headerLine = lineNumber;
+            attributeNames = new String[]{"@attribute"};
+            attributeTypes = new String[]{"@type"};
+            attributeDefaults = new String[]{"@default"};
+            attributeNamesLine = -1;
+            attributeTypesLine = -1;
+            attributeDefaultsLine = -1;
+            definitionsClosed = false;
+            attributes = null;
+            if (blockType == BlockType.graph) {
+                openGraph(header);
+            }
+        }
+
+        private void openGraph(String header) {
+            int level = header.replaceAll("graph", "").length() - 1;
+            if (level > graphs.size()) {
+                throw new MalformedFileException(headerLine, "cannot associate a parent graph to this block as this graph is too deep in the hierarchy.");
+            }
+            if (level == 0 && graphs.size() > 0) {
+                throw new MalformedFileException(headerLine, "cannot define two root graphs in the same file.");
+            }
+            if (level == 0) {
+                graphs.push(new Graph());
+            } else {
+                while (graphs.size() != level) {
+                    graphs.pop();
+                }
+                graphs.push(graphs.peek().newSubGraph());
+            }
+            graph = graphs.peek();
+            isRoot = graph == graph.rootGraph();
+        }
+
+        private void parseDefinition(String line) {
+            String[] fields = line.split("\t");
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = fields[i].trim();
+            }
+            if (line.startsWith("@attribute")) {
+                for (int i = 1; i < fields.length; i++) {
+                    if (fields[i].isEmpty()) {
+                        throw new MalformedFileException(lineNumber, "attribute names cannot be empty.");
+                    }
+                }
+                attributeNames = fields;
+                attributeNamesLine = lineNumber;
+            } else if (line.startsWith("@type")) {
+                attributeTypes = fields;
+                attributeTypesLine = lineNumber;
+            } else if (line.startsWith("@default")) {
+                attributeDefaults = fields;
+                attributeDefaultsLine = lineNumber;
+            } else {
+                throw new MalformedFileException(lineNumber, "attribute line not recognizable.");
+            }
+        }
+
+        /**
+         * Completes the attribute definitions of the current block, creating
+         * the graph attributes or the attributes of the block elements.
+         */
+        @SuppressWarnings("unchecked")
+        private void closeDefinitions() {
+            if (definitionsClosed) {
+                return;
+            }
+            definitionsClosed = true;
+
+            if (blockType == BlockType.graph) {
+                if (attributeNamesLine != -1 && attributeDefaultsLine == -1) {
+                    throw new MalformedFileException(attributeNamesLine, "it is not possible to define graph attributes without giving their value.");
+                }
+                for (int i = 1; i < attributeNames.length; i++) {
+                    OcoValueConverter<?> converter = converter(attributeNames[i], attributeType(i));
+                    String defaultValue = attributeDefault(i);
+                    if (defaultValue.isEmpty()) {
+                        throw new MalformedFileException(attributeDefaultsLine, "it is not possible to define graph attributes without giving their value.");
+                    }
+                    graph.newLocalGraphAttribute(attributeNames[i], converter.ocoToGraphLib(defaultValue));
+                }
+                return;
+            }
+
+            if (blockType == BlockType.edges) {
+                if (isRoot && attributeNames.length < 3) {
+                    throw new MalformedFileException(headerLine, "edges are not correctly defined.");
+                }
+                if (!isRoot && attributeNames.length >= 3
+                        && (attributeNames[1].startsWith("@") || attributeNames[2].startsWith("@"))) {
+                    throw new MalformedFileException(headerLine, "edges sources and targets can only be defined in the root graph.");
+                }
+            }
+            firstAttribute = blockType == BlockType.edges && isRoot ? 3 : 1;
+
+            attributes = (ElementAttribute<Element, Object>[]) new ElementAttribute<?, ?>[attributeNames.length];
+            columnConverters = new OcoValueConverter<?>[attributeNames.length];
+            valueTypes = new ValueType[attributeNames.length];
+            for (int i = firstAttribute; i < attributeNames.length; i++) {
+                String name = attributeNames[i];
+                OcoValueConverter<?> converter = converter(name, attributeType(i));
+                String defaultString = attributeDefault(i);
+                Object defaultValue;
+                if (!defaultString.isEmpty()) {
+                    defaultValue = converter.ocoToGraphLib(defaultString);
+                } else if (StdAttribute.isStandard(name)) {
+                    defaultValue = blockType == BlockType.nodes
+                            ? new Graph().nodeAttribute(name).getDefault()
+                            : new Graph().edgeAttribute(name).getDefault();
+                } else {
+                    defaultValue = converter.defaultValue();
+                }
+                Object attribute = blockType == BlockType.nodes
+                        ? graph.newLocalNodeAttribute(name, defaultValue)
+                        : graph.newLocalEdgeAttribute(name, defaultValue);
+                attributes[i] = (ElementAttribute<Element, Object>) attribute;
+                columnConverters[i] = converter;
+                valueTypes[i] = valueType(converter);
+            }
+        }
+
+        private void closeBlock() {
+            if (blockType != null) {
+                closeDefinitions();
+            }
+        }
+
+        private String attributeType(int index) {
+            return index < attributeTypes.length ? attributeTypes[index] : "";
+        }
+
+        private String attributeDefault(int index) {
+            return index < attributeDefaults.length ? attributeDefaults[index] : "";
+        }
+
+        private OcoValueConverter<?> converter(String name, String type) {
+            OcoValueConverter<?> converter;
+            if (StdAttribute.isStandard(name)) {
+                converter = converters.get(StdAttribute.get(name).matchingClass);
+                if (!type.isEmpty() && !type.equals(converter.typeName())) {
+                    throw new MalformedFileException(attributeTypesLine, "they type indicated do not correspond to the matching class of the standard attribute " + name + ".");
+                }
+            } else {
+                String typeName = type.isEmpty() ? "String" : type;
+                converter = converters.get(typeName);
+                if (converter == null) {
+                    throw new MalformedFileException(attributeTypesLine != -1 ? attributeTypesLine : attributeNamesLine,
+                            "cannot find a converter for the type " + typeName + ".");
+                }
+            }
+            return converter;
+        }
+
+        private ValueType valueType(OcoValueConverter<?> converter) {
+            if (converter.typeClass() == Coordinates.class) {
+                return ValueType.coordinates;
+            } else if (converter.typeClass() == ControlPoints.class) {
+                return ValueType.controlPoints;
+            } else if (converter.typeClass() == Double.class) {
+                return ValueType.real;
+            }
+            return ValueType.other;
+        }
+
+        /**
+         * Parses a row of values, creating or adding the element and setting
+         * its attributes.
+         */
+        private void parseRow() {
+            closeDefinitions();
+            splitCells();
+            if (cellCount > attributeNames.length) {
+                throw new MalformedFileException(lineNumber, "the row has more values than attributes.");
+            }
+            String id = cellString(0);
+            try {
+                Rules.checkId(id);
+            } catch (IllegalArgumentException exception) {
+                throw new MalformedFileException(lineNumber, "the element does not have a valid id.");
+            }
+
+            Graph root = graph.rootGraph();
+            Element element;
+            if (blockType == BlockType.graph) {
+                return;
+            } else if (blockType == BlockType.nodes) {
+                if (isRoot) {
+                    element = graph.newNode(id);
+                } else {
+                    element = root.getNode(id);
+                    graph.add(element);
+                }
+            } else if (isRoot) {
+                Node source = root.getNode(cellString(1));
+                Node target = root.getNode(cellString(2));
+                element = graph.newEdge(id, source, target);
+            } else {
+                element = root.getEdge(id);
+                graph.add(element);
+            }
+
+            for (int i = firstAttribute; i < cellCount; i++) {
+                if (cellStarts[i] == cellEnds[i]) {
+                    continue;
+                }
+                attributes[i].set(element, parseValue(i));
+            }
+        }
+
+        private Object parseValue(int column) {
+            int start = cellStarts[column];
+            int end = cellEnds[column];
+            switch (valueTypes[column]) {
+                case coordinates:
+                    return parseCoordinates(start, end);
+                case controlPoints:
+                    ControlPoints points = new ControlPoints();
+                    int tokenEnd = lastNonEmptyTokenEnd(start, end, (byte) ' ');
+                    int tokenStart = start;
+                    while (tokenStart < tokenEnd) {
+                        int separator = indexOf(tokenStart, tokenEnd, (byte) ' ');
+                        points.add(parseCoordinates(tokenStart, separator));
+                        tokenStart = separator + 1;
+                    }
+                    return points;
+                case real:
+                    return parseDouble(start, end);
+                default:
+                    return columnConverters[column].ocoToGraphLib(string(start, end));
+            }
+        }
+
+        /**
+         * Parses comma separated coordinates with the semantics of
+         * String.split, which drops the trailing empty components.
+         */
+        private Coordinates parseCoordinates(int start, int end) {
+            int componentsEnd = start == end ? end : lastNonEmptyTokenEnd(start, end, (byte) ',');
+            int dimension = 0;
+            if (start == end) {
+                dimension = 1;
+            } else {
+                for (int i = start; i < componentsEnd; i++) {
+                    if (buffer.get(i) == ',') {
+                        dimension++;
+                    }
+                }
+                if (componentsEnd > start) {
+                    dimension++;
+                }
+            }
+            if (dimension == 2) {
+                int comma = indexOf(start, componentsEnd, (byte) ',');
+                return new Coordinates(parseDouble(start, comma), parseDouble(comma + 1, componentsEnd));
+            }
+            Coordinates coordinates = new Coordinates(dimension);
+            int componentStart = start;
+            for (int i = 0; i < dimension; i++) {
+                int comma = indexOf(componentStart, componentsEnd, (byte) ',');
+                coordinates.setAt(i, parseDouble(componentStart, comma));
+                componentStart = comma + 1;
+            }
+            return coordinates;
+        }
+
+        /**
+         * Returns the end of the last non empty token of a range, or the start
+         * of the range if all tokens are empty.
+         */
+        private int lastNonEmptyTokenEnd(int start, int end, byte separator) {
+            int tokenEnd = end;
+            while (tokenEnd > start && buffer.get(tokenEnd - 1) == separator) {
+                tokenEnd--;
+            }
+            return tokenEnd;
+        }
+
+        private int indexOf(int start, int end, byte value) {
+            for (int i = start; i < end; i++) {
+                if (buffer.get(i) == value) {
+                    return i;
+                }
+            }
+            return end;
+        }
+
+        /**
+         * Parses a decimal number from the mapped bytes. Numbers with at most
+         * 15 significant digits and a small exponent are converted exactly
+         * with a single floating point operation, the others are delegated to
+         * Double.parseDouble.
+         */
+        private double parseDouble(int start, int end) {
+            int i = start;
+            while (i < end && isWhitespace(buffer.get(i))) {
+                i++;
+            }
+            int j = end;
+            while (j > i && isWhitespace(buffer.get(j - 1))) {
+                j--;
+            }
+
+            boolean negative = false;
+            if (i < j && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negative = buffer.get(i) == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean seenDigit = false;
+            boolean seenPoint = false;
+            for (; i < j; i++) {
+                byte current = buffer.get(i);
+                if (current >= '0' && current <= '9') {
+                    seenDigit = true;
+                    if (mantissa != 0 || current != '0') {
+                        digits++;
+                    }
+                    if (digits > 18) {
+                        return Double.parseDouble(string(start, end));
+                    }
+                    mantissa = mantissa * 10 + (current - '0');
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                } else if (current == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+            }
+            if (i < j && seenDigit && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+                i++;
+                boolean negativeExponent = false;
+                if (i < j && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                    negativeExponent = buffer.get(i) == '-';
+                    i++;
+                }
+                int explicitExponent = 0;
+                boolean seenExponentDigit = false;
+                for (; i < j && buffer.get(i) >= '0' && buffer.get(i) <= '9' && explicitExponent < 10000; i++) {
+                    explicitExponent = explicitExponent * 10 + (buffer.get(i) - '0');
+                    seenExponentDigit = true;
+                }
+                if (!seenExponentDigit) {
+                    return Double.parseDouble(string(start, end));
+                }
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+            }
+            if (i != j || !seenDigit || mantissa > maxExactMantissa || exponent < -22 || exponent > 22) {
+                return Double.parseDouble(string(start, end));
+            }
+
+            double value = exponent >= 0 ? mantissa * powersOfTen[exponent] : mantissa / powersOfTen[-exponent];
+            return negative ? -value : value;
+        }
+
+        private void splitCells() {
+            cellCount = 0;
+            int start = lineStart;
+            for (int i = lineStart; i <= lineEnd; i++) {
+                if (i == lineEnd || buffer.get(i) == '\t') {
+                    if (cellCount == cellStarts.length) {
+                        int[] newStarts = new int[cellCount * 2];
+                        int[] newEnds = new int[cellCount * 2];
+                        System.arraycopy(cellStarts, 0, newStarts, 0, cellCount);
+                        System.arraycopy(cellEnds, 0, newEnds, 0, cellCount);
+                        cellStarts = newStarts;
+                        cellEnds = newEnds;
+                    }
+                    int cellStart = start;
+                    int cellEnd = i;
+                    while (cellStart < cellEnd && isWhitespace(buffer.get(cellStart))) {
+                        cellStart++;
+                    }
+                    while (cellEnd > cellStart && isWhitespace(buffer.get(cellEnd - 1))) {
+                        cellEnd--;
+                    }
+                    cellStarts[cellCount] = cellStart;
+                    cellEnds[cellCount] = cellEnd;
+                    cellCount++;
+                    start = i + 1;
+                }
+            }
+        }
+
+        private String cellString(int column) {
+            return column < cellCount ? string(cellStarts[column], cellEnds[column]) : "";
+        }
+
+        private String lineString() {
+            return string(lineStart, lineEnd);
+        }
+
+        private String string(int start, int end) {
+            int length = end - start;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(start + i);
+            }
+            return new String(scratch, 0, length, charset);
+        }
+
+        private boolean isWhitespace(byte value) {
+            return (value & 0xff) <= ' ';
+        }
+    }
+}
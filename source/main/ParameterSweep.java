@@ -0,0 +1,295 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Smooths a dataset for every combination of a grid of parameters. The
+ * dataset is parsed once by the graph cache, and every variant smooths its own
+ * copy of it. The variants run in parallel, and the result is a table of
+ * running time and final isoperimetric quotient for each combination.
+ */
+public class ParameterSweep {
+
+    private static final String usage = "EulerSmooth sweep [options] file.oco";
+    private static final String usageHeader = "Values are comma separated lists.";
+    private static final String[] header = {"file", "distance", "mov", "ind", "sep", "iterations", "factor",
+        "status", "iterations run", "seconds", "initial quotient", "final quotient", "topology violations"};
+
+    public List<Double> distances = Arrays.asList(10.0);
+    public List<Boolean> movs = Arrays.asList(true);
+    public List<Boolean> inds = Arrays.asList(true);
+    public List<Boolean> seps = Arrays.asList(false);
+    public List<Integer> iterations = Arrays.asList(100);
+    public List<Double> factors = Arrays.asList(1.0);
+
+    private final File file;
+    private final boolean duplicateShared;
+
+    /**
+     * Constructs a sweep over a dataset. The parameter grid contains the
+     * default test parameters until modified.
+     *
+     * @param file the oco file of the dataset.
+     * @param duplicateShared whether the curves shared by more sets should be
+     * duplicated.
+     */
+    public ParameterSweep(File file, boolean duplicateShared) {
+        this.file = file;
+        this.duplicateShared = duplicateShared;
+    }
+
+    /**
+     * Builds a test for every combination of the parameter grid. The graphs
+     * of the tests are loaded only when the tests are run.
+     *
+     * @return the tests.
+     */
+    public List<SmoothingTest> variants() {
+        List<SmoothingTest> variants = new ArrayList<>();
+        for (double distance : distances) {
+            for (boolean mov : movs) {
+                for (boolean ind : inds) {
+                    for (boolean sep : seps) {
+                        for (int iterationCount : iterations) {
+                            for (double factor : factors) {
+                                SmoothingTest test = new SmoothingTest.OcoFile(file, duplicateShared);
+                                test.distance = distance;
+                                test.mov = mov;
+                                test.ind = ind;
+                                test.sep = sep;
+                                test.iterations = iterationCount;
+                                test.factor = factor;
+                                variants.add(test);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * Runs all the variants.
+     *
+     * @param threads the number of variants run in parallel.
+     * @param timeout the maximum running time of each variant, or 0 for no
+     * limit.
+     * @param unit the time unit of the timeout.
+     * @return the results, in the order of the variants.
+     * @throws InterruptedException if interrupted while waiting for the
+     * variants, which are then cancelled.
+     */
+    public List<Result> run(int threads, long timeout, TimeUnit unit) throws InterruptedException {
+        List<SmoothingTest> variants = variants();
+        List<SmoothingRun<SmoothingTest.Statistics>> runs = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        SmoothingExecutor executor = new SmoothingExecutor(threads);
+        try {
+            for (final SmoothingTest test : variants) {
+                runs.add(executor.submit(new Callable<SmoothingTest.Statistics>() {
+
+                    @Override
+                    public SmoothingTest.Statistics call() {
+                        test.reset();
+                        return test.measure();
+                    }
+                }, timeout, unit));
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                SmoothingTest test = variants.get(i);
+                try {
+                    results.add(new Result(test, "ok", runs.get(i).get()));
+                } catch (CancellationException exception) {
+                    results.add(new Result(test, "cancelled", null));
+                } catch (ExecutionException exception) {
+                    results.add(new Result(test, "failed: " + exception.getCause(), null));
+                }
+            }
+        } finally {
+            executor.cancelAll();
+        }
+        return results;
+    }
+
+    /**
+     * Writes the results in CSV format.
+     *
+     * @param results the results.
+     * @param output the output.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void writeTable(List<Result> results, Appendable output) throws IOException {
+        CSVPrinter printer = new CSVPrinter(output, CSVFormat.DEFAULT.withHeader(header));
+        for (Result result : results) {
+            SmoothingTest.Statistics statistics = result.statistics;
+            printer.printRecord(result.file, result.distance, result.mov, result.ind, result.sep, result.iterations, result.factor,
+                    result.status, statistics != null ? statistics.iterations : "", statistics != null ? statistics.seconds : "",
+                    statistics != null ? statistics.initialQuotient : "", statistics != null ? statistics.finalQuotient : "",
+                    statistics != null ? statistics.topology.violationCount() : "");
+        }
+        printer.flush();
+    }
+
+    /**
+     * The parameters and the outcome of a variant.
+     */
+    public static class Result {
+
+        public final String file;
+        public final double distance;
+        public final boolean mov;
+        public final boolean ind;
+        public final boolean sep;
+        public final int iterations;
+        public final double factor;
+        public final String status;
+        public final SmoothingTest.Statistics statistics;
+
+        private Result(SmoothingTest test, String status, SmoothingTest.Statistics statistics) {
+            this.file = test.getName();
+            this.distance = test.distance;
+            this.mov = test.mov;
+            this.ind = test.ind;
+            this.sep = test.sep;
+            this.iterations = test.iterations;
+            this.factor = test.factor;
+            this.status = status;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * Parses the command line arguments and runs the requested sweep.
+     *
+     * @param args the command line arguments.
+     */
+    public static void run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        Options options = options();
+        CommandLine line;
+        try {
+            line = new GnuParser().parse(options, args);
+        } catch (ParseException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, usageHeader, options);
+            return;
+        }
+
+        if (line.hasOption("help")) {
+            CommandLineOptions.printHelp(usage, usageHeader, options);
+            return;
+        }
+
+        ParameterSweep sweep;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeout = 0;
+        try {
+            if (line.getArgs().length != 1 || !new File(line.getArgs()[0]).isFile()) {
+                throw new IllegalArgumentException("A single readable oco file is required.");
+            }
+            sweep = new ParameterSweep(new File(line.getArgs()[0]), line.hasOption("duplicate-shared"));
+            if (line.hasOption("distance")) {
+                sweep.distances = CommandLineOptions.parseDoubles(line.getOptionValue("distance"));
+            }
+            if (line.hasOption("mov")) {
+                sweep.movs = CommandLineOptions.parseBooleans(line.getOptionValue("mov"));
+            }
+            if (line.hasOption("ind")) {
+                sweep.inds = CommandLineOptions.parseBooleans(line.getOptionValue("ind"));
+            }
+            if (line.hasOption("sep")) {
+                sweep.seps = CommandLineOptions.parseBooleans(line.getOptionValue("sep"));
+            }
+            if (line.hasOption("iterations")) {
+                sweep.iterations = CommandLineOptions.parseIntegers(line.getOptionValue("iterations"));
+            }
+            if (line.hasOption("factor")) {
+                sweep.factors = CommandLineOptions.parseDoubles(line.getOptionValue("factor"));
+            }
+            if (line.hasOption("threads")) {
+                threads = CommandLineOptions.parseInteger(line.getOptionValue("threads"));
+                if (threads < 1) {
+                    throw new IllegalArgumentException("The number of threads must be positive.");
+                }
+            }
+            if (line.hasOption("timeout")) {
+                timeout = CommandLineOptions.parseInteger(line.getOptionValue("timeout"));
+                if (timeout < 0) {
+                    throw new IllegalArgumentException("The timeout cannot be negative.");
+                }
+            }
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, usageHeader, options);
+            return;
+        }
+
+        List<Result> results;
+        try {
+            results = sweep.run(threads, timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            if (line.hasOption("output")) {
+                try (FileWriter writer = new FileWriter(line.getOptionValue("output"))) {
+                    writeTable(results, writer);
+                }
+            } else {
+                writeTable(results, System.out);
+            }
+        } catch (IOException exception) {
+            System.err.println("Cannot write the results: " + exception.getMessage());
+        }
+    }
+
+    private static Options options() {
+        Options options = new Options();
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("x", "duplicate-shared", false, "duplicate the curves shared by more sets in the input file");
+        options.addOption(CommandLineOptions.option("d", "distance", "values", "desired distances between elements (default: 10)"));
+        options.addOption(CommandLineOptions.option(null, "mov", "values", "movable set elements (default: true)"));
+        options.addOption(CommandLineOptions.option(null, "ind", "values", "independent curve smoothing (default: true)"));
+        options.addOption(CommandLineOptions.option(null, "sep", "values", "separated curves (default: false)"));
+        options.addOption(CommandLineOptions.option("n", "iterations", "values", "numbers of iterations (default: 100)"));
+        options.addOption(CommandLineOptions.option(null, "factor", "values", "flexible edge factors (default: 1.0)"));
+        options.addOption(CommandLineOptions.option("t", "threads", "number", "number of variants run in parallel (default: number of processors)"));
+        options.addOption(CommandLineOptions.option(null, "timeout", "seconds", "maximum running time of each variant"));
+        options.addOption(CommandLineOptions.option("o", "output", "file", "CSV file for the results"));
+        return options;
+    }
+}
@@ -0,0 +1,582 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.extra.BendExplicitGraphSynchroniser.MirrorEdge;
+import ocotillo.graph.layout.fdl.impred.ImpredPostProcessing;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Tracks the quality of the curves during the smoothing. At every iteration
+ * it records the area, perimeter and isoperimetric quotient of each curve,
+ * the minimum distance between the set elements and the curves, and the
+ * number of crossings between curve segments.
+ * <p>
+ * The metrics are kept up to date incrementally on the mirror graph. The
+ * shoelace and length terms of a segment are recomputed only when one of its
+ * extremities moved, and a curve is packed again only when the flexible edges
+ * changed its bends. The segments are stored in a spatial hash, so that the
+ * crossings of the changed segments and the clearance of the elements are
+ * computed from the neighbouring segments only. The step should follow the
+ * post-processing steps that modify the layout.
+ */
+public class QualityMetrics extends ImpredPostProcessing {
+
+    private final List<List<Edge>> curves;
+    private final List<Node> elements;
+    private final double cellSize;
+    private final double clearanceRadius;
+    private final List<Sample> samples = new ArrayList<>();
+
+    private Graph mirror;
+    private Node[][] curveNodes;
+    private Edge[][] curveSegments;
+    private double[][] xs;
+    private double[][] ys;
+    private double[][] crossTerms;
+    private double[][] lengths;
+    private double[] doubleAreas;
+    private double[] perimeters;
+
+    private final Map<Edge, Segment> segments = new HashMap<>();
+    private final Map<Long, List<Segment>> cells = new HashMap<>();
+    private final List<Segment> changed = new ArrayList<>();
+    private final List<Edge> removed = new ArrayList<>();
+    private int iteration;
+    private int crossings;
+
+    /**
+     * Builds the metrics.
+     *
+     * @param topology the curve topology of the smoothed graph.
+     * @param elements the set elements.
+     * @param cellSize the size of the cells of the segment spatial hash.
+     * @param clearanceRadius the maximum element-curve distance measured.
+     */
+    public QualityMetrics(CurveTopology topology, List<Node> elements, double cellSize, double clearanceRadius) {
+        this.curves = topology.curves();
+        this.elements = elements;
+        this.cellSize = cellSize;
+        this.clearanceRadius = clearanceRadius;
+    }
+
+    @Override
+    protected void execute() {
+        if (mirrorGraph() != mirror) {
+            reset();
+        }
+        iteration++;
+        NodeAttribute<Coordinates> positions = mirrorPositions();
+        for (int curve = 0; curve < curves.size(); curve++) {
+            if (!isPackingValid(curve)) {
+                if (curveSegments[curve] != null) {
+                    Collections.addAll(removed, curveSegments[curve]);
+                }
+                pack(curve);
+                for (int i = 0; i < curveSegments[curve].length; i++) {
+                    markChanged(curve, i);
+                }
+                continue;
+            }
+            updateCurve(curve, positions);
+        }
+
+        for (Edge edge : removed) {
+            Segment segment = segments.get(edge);
+            if (segment != null && segment.stamp != iteration) {
+                removeCrossings(segment);
+                move(segment, new long[0]);
+                segments.remove(edge);
+            }
+        }
+        for (Segment segment : changed) {
+            double[] x = xs[segment.curve];
+            double[] y = ys[segment.curve];
+            int next = segment.index == x.length - 1 ? 0 : segment.index + 1;
+            segment.x0 = x[segment.index];
+            segment.y0 = y[segment.index];
+            segment.x1 = x[next];
+            segment.y1 = y[next];
+            removeCrossings(segment);
+            long[] keys = traversedCells(segment.x0, segment.y0, segment.x1, segment.y1);
+            if (!Arrays.equals(keys, segment.keys)) {
+                move(segment, keys);
+            }
+        }
+        for (Segment segment : changed) {
+            addCrossings(segment);
+        }
+        changed.clear();
+        removed.clear();
+
+        samples.add(sample(positions));
+    }
+
+    /**
+     * Marks the segment starting at the given position of a curve as changed
+     * in the current iteration.
+     */
+    private void markChanged(int curve, int index) {
+        Edge edge = curveSegments[curve][index];
+        Segment segment = segments.get(edge);
+        if (segment == null) {
+            segment = new Segment(edge);
+            segments.put(edge, segment);
+        }
+        if (segment.stamp != iteration) {
+            segment.stamp = iteration;
+            changed.add(segment);
+        }
+        segment.curve = curve;
+        segment.index = index;
+    }
+
+    private void reset() {
+        mirror = mirrorGraph();
+        curveNodes = new Node[curves.size()][];
+        curveSegments = new Edge[curves.size()][];
+        xs = new double[curves.size()][];
+        ys = new double[curves.size()][];
+        crossTerms = new double[curves.size()][];
+        lengths = new double[curves.size()][];
+        doubleAreas = new double[curves.size()];
+        perimeters = new double[curves.size()];
+        segments.clear();
+        cells.clear();
+        crossings = 0;
+    }
+
+    /**
+     * Checks whether the packed nodes and segments of a curve still
+     * correspond to its mirror edges.
+     */
+    private boolean isPackingValid(int curve) {
+        Node[] nodes = curveNodes[curve];
+        Edge[] segments = curveSegments[curve];
+        if (nodes == null) {
+            return false;
+        }
+        List<Edge> edges = curves.get(curve);
+        Node currentNode = commonExtremity(edges.get(0), edges.get(edges.size() - 1));
+        int i = 0;
+        for (Edge edge : edges) {
+            MirrorEdge mirrorEdge = synchronizer().getMirrorEdge(edge);
+            boolean forward = mirrorEdge.source() == currentNode;
+            List<Node> bends = mirrorEdge.bends();
+            List<Edge> edgeSegments = mirrorEdge.segments();
+            int size = edgeSegments.size();
+            if (i + size > nodes.length || nodes[i] != currentNode || bends.size() != size - 1) {
+                return false;
+            }
+            int j = 0;
+            for (Edge segment : edgeSegments) {
+                if (segments[i + (forward ? j : size - 1 - j)] != segment) {
+                    return false;
+                }
+                j++;
+            }
+            j = 0;
+            for (Node bend : bends) {
+                if (nodes[i + (forward ? j + 1 : size - 1 - j)] != bend) {
+                    return false;
+                }
+                j++;
+            }
+            i += size;
+            currentNode = forward ? mirrorEdge.target() : mirrorEdge.source();
+        }
+        return i == nodes.length;
+    }
+
+    /**
+     * Packs the mirror nodes and segments of a curve in cyclic order and
+     * computes its area and perimeter from scratch.
+     */
+    private void pack(int curve) {
+        List<Node> nodeList = new ArrayList<>();
+        List<Edge> segmentList = new ArrayList<>();
+        List<Edge> edges = curves.get(curve);
+        Node currentNode = commonExtremity(edges.get(0), edges.get(edges.size() - 1));
+        for (Edge edge : edges) {
+            MirrorEdge mirrorEdge = synchronizer().getMirrorEdge(edge);
+            boolean forward = mirrorEdge.source() == currentNode;
+            List<Node> bends = mirrorEdge.bends();
+            List<Edge> edgeSegments = mirrorEdge.segments();
+            nodeList.add(currentNode);
+            addInOrder(nodeList, bends, forward);
+            addInOrder(segmentList, edgeSegments, forward);
+            currentNode = forward ? mirrorEdge.target() : mirrorEdge.source();
+        }
+
+        int size = nodeList.size();
+        Node[] nodes = nodeList.toArray(new Node[size]);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        NodeAttribute<Coordinates> positions = mirrorPositions();
+        for (int i = 0; i < size; i++) {
+            Coordinates position = positions.get(nodes[i]);
+            x[i] = position.x();
+            y[i] = position.y();
+        }
+        curveNodes[curve] = nodes;
+        curveSegments[curve] = segmentList.toArray(new Edge[size]);
+        xs[curve] = x;
+        ys[curve] = y;
+        crossTerms[curve] = new double[size];
+        lengths[curve] = new double[size];
+        doubleAreas[curve] = 0;
+        perimeters[curve] = 0;
+        for (int i = 0; i < size; i++) {
+            updateSegment(curve, i);
+        }
+    }
+
+    /**
+     * Reads the positions of the nodes of a curve and updates the terms of
+     * the segments adjacent to the nodes that moved.
+     */
+    private void updateCurve(int curve, NodeAttribute<Coordinates> positions) {
+        Node[] nodes = curveNodes[curve];
+        double[] x = xs[curve];
+        double[] y = ys[curve];
+        for (int i = 0; i < nodes.length; i++) {
+            Coordinates position = positions.get(nodes[i]);
+            if (position.x() != x[i] || position.y() != y[i]) {
+                x[i] = position.x();
+                y[i] = position.y();
+                int previous = i == 0 ? nodes.length - 1 : i - 1;
+                updateSegment(curve, previous);
+                updateSegment(curve, i);
+                markChanged(curve, previous);
+                markChanged(curve, i);
+            }
+        }
+    }
+
+    /**
+     * Replaces the shoelace and length terms of the segment starting at the
+     * given position. Segments adjacent to two moved nodes are updated twice,
+     * which leaves the sums unchanged.
+     */
+    private void updateSegment(int curve, int i) {
+        double[] x = xs[curve];
+        double[] y = ys[curve];
+        int next = i == x.length - 1 ? 0 : i + 1;
+        double crossTerm = x[i] * y[next] - x[next] * y[i];
+        double length = Math.hypot(x[next] - x[i], y[next] - y[i]);
+        doubleAreas[curve] += crossTerm - crossTerms[curve][i];
+        perimeters[curve] += length - lengths[curve][i];
+        crossTerms[curve][i] = crossTerm;
+        lengths[curve][i] = length;
+    }
+
+    /**
+     * Appends the elements of a list in the given direction. The mirror edges
+     * keep their bends and segments in linked lists.
+     */
+    private static <T> void addInOrder(List<T> target, List<T> source, boolean forward) {
+        if (forward) {
+            target.addAll(source);
+            return;
+        }
+        ListIterator<T> iterator = source.listIterator(source.size());
+        while (iterator.hasPrevious()) {
+            target.add(iterator.previous());
+        }
+    }
+
+    private static Node commonExtremity(Edge first, Edge second) {
+        if (first.source() == second.source() || first.source() == second.target()) {
+            return first.source();
+        } else if (first.target() == second.source() || first.target() == second.target()) {
+            return first.target();
+        }
+        throw new IllegalArgumentException("The edges have no extremities in common.");
+    }
+
+    /**
+     * Moves a segment from the cells it traversed to the given ones.
+     */
+    private void move(Segment segment, long[] keys) {
+        for (long key : segment.keys) {
+            List<Segment> cell = cells.get(key);
+            cell.remove(segment);
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+        for (long key : keys) {
+            List<Segment> cell = cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>(4);
+                cells.put(key, cell);
+            }
+            cell.add(segment);
+        }
+        segment.keys = keys;
+    }
+
+    /**
+     * Computes the cells traversed by a segment, walking the grid from the
+     * cell of the first extremity to the one of the second.
+     */
+    private long[] traversedCells(double x0, double y0, double x1, double y1) {
+        int cellX = (int) Math.floor(x0 / cellSize);
+        int cellY = (int) Math.floor(y0 / cellSize);
+        int endX = (int) Math.floor(x1 / cellSize);
+        int endY = (int) Math.floor(y1 / cellSize);
+        int steps = Math.abs(endX - cellX) + Math.abs(endY - cellY);
+        long[] keys = new long[steps + 1];
+        keys[0] = key(cellX, cellY);
+
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int stepX = endX > cellX ? 1 : -1;
+        int stepY = endY > cellY ? 1 : -1;
+        double nextX = dx != 0 ? ((stepX > 0 ? cellX + 1 : cellX) * cellSize - x0) / dx : Double.POSITIVE_INFINITY;
+        double nextY = dy != 0 ? ((stepY > 0 ? cellY + 1 : cellY) * cellSize - y0) / dy : Double.POSITIVE_INFINITY;
+        double deltaX = dx != 0 ? cellSize / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double deltaY = dy != 0 ? cellSize / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        for (int i = 1; i <= steps; i++) {
+            if (cellY == endY || (cellX != endX && nextX < nextY)) {
+                cellX += stepX;
+                nextX += deltaX;
+            } else {
+                cellY += stepY;
+                nextY += deltaY;
+            }
+            keys[i] = key(cellX, cellY);
+        }
+        return keys;
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private void removeCrossings(Segment segment) {
+        for (Segment partner : segment.partners) {
+            partner.partners.remove(segment);
+        }
+        crossings -= segment.partners.size();
+        segment.partners.clear();
+    }
+
+    /**
+     * Finds the segments crossing a segment among the ones sharing a cell
+     * with it.
+     */
+    private void addCrossings(Segment segment) {
+        for (long key : segment.keys) {
+            for (Segment other : cells.get(key)) {
+                if (other == segment || sharesExtremity(segment.edge, other.edge) || segment.partners.contains(other)) {
+                    continue;
+                }
+                if (properlyIntersect(segment, other)) {
+                    segment.partners.add(other);
+                    other.partners.add(segment);
+                    crossings++;
+                }
+            }
+        }
+    }
+
+    private static boolean sharesExtremity(Edge first, Edge second) {
+        return first.source() == second.source() || first.source() == second.target()
+                || first.target() == second.source() || first.target() == second.target();
+    }
+
+    private static boolean properlyIntersect(Segment first, Segment second) {
+        double abc = orientation(first.x0, first.y0, first.x1, first.y1, second.x0, second.y0);
+        double abd = orientation(first.x0, first.y0, first.x1, first.y1, second.x1, second.y1);
+        double cda = orientation(second.x0, second.y0, second.x1, second.y1, first.x0, first.y0);
+        double cdb = orientation(second.x0, second.y0, second.x1, second.y1, first.x1, first.y1);
+        return ((abc > 0 && abd < 0) || (abc < 0 && abd > 0)) && ((cda > 0 && cdb < 0) || (cda < 0 && cdb > 0));
+    }
+
+    private static double orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+    /**
+     * Computes the distance between an element and the closest curve segment
+     * within the clearance radius.
+     */
+    private double clearance(Node element, NodeAttribute<Coordinates> positions) {
+        Coordinates position = positions.get(element);
+        int minX = (int) Math.floor((position.x() - clearanceRadius) / cellSize);
+        int maxX = (int) Math.floor((position.x() + clearanceRadius) / cellSize);
+        int minY = (int) Math.floor((position.y() - clearanceRadius) / cellSize);
+        int maxY = (int) Math.floor((position.y() + clearanceRadius) / cellSize);
+        double clearance = Double.POSITIVE_INFINITY;
+        for (int cellX = minX; cellX <= maxX; cellX++) {
+            for (int cellY = minY; cellY <= maxY; cellY++) {
+                List<Segment> cell = cells.get(key(cellX, cellY));
+                if (cell == null) {
+                    continue;
+                }
+                for (Segment segment : cell) {
+                    clearance = Math.min(clearance, pointToSegmentDistance(position.x(), position.y(), segment));
+                }
+            }
+        }
+        return clearance <= clearanceRadius ? clearance : Double.POSITIVE_INFINITY;
+    }
+
+    private static double pointToSegmentDistance(double x, double y, Segment segment) {
+        double dx = segment.x1 - segment.x0;
+        double dy = segment.y1 - segment.y0;
+        double squaredLength = dx * dx + dy * dy;
+        double t = squaredLength > 0 ? ((x - segment.x0) * dx + (y - segment.y0) * dy) / squaredLength : 0;
+        t = Math.max(0, Math.min(1, t));
+        double px = x - segment.x0 - t * dx;
+        double py = y - segment.y0 - t * dy;
+        return Math.sqrt(px * px + py * py);
+    }
+
+    private Sample sample(NodeAttribute<Coordinates> positions) {
+        double[] areas = new double[curves.size()];
+        double[] quotients = new double[curves.size()];
+        double quotientSum = 0;
+        for (int curve = 0; curve < curves.size(); curve++) {
+            areas[curve] = Math.abs(doubleAreas[curve]) / 2;
+            double perimeter = perimeters[curve];
+            quotients[curve] = perimeter > 0 ? 4 * Math.PI * areas[curve] / (perimeter * perimeter) : 0;
+            quotientSum += quotients[curve];
+        }
+        double minClearance = Double.POSITIVE_INFINITY;
+        for (Node element : elements) {
+            minClearance = Math.min(minClearance, clearance(element, positions));
+        }
+        return new Sample(samples.size(), areas, perimeters.clone(), quotients,
+                quotientSum / curves.size(), minClearance, crossings);
+    }
+
+    /**
+     * Returns the metrics recorded at every iteration.
+     *
+     * @return the samples, in iteration order.
+     */
+    public List<Sample> samples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    /**
+     * Returns the metrics of the last iteration.
+     *
+     * @return the last sample, or null if no iteration has been performed.
+     */
+    public Sample last() {
+        return samples.isEmpty() ? null : samples.get(samples.size() - 1);
+    }
+
+    /**
+     * Writes the recorded metrics in CSV format, one row per iteration.
+     *
+     * @param output the output.
+     * @throws IOException if the output cannot be written.
+     */
+    public void writeCsv(Appendable output) throws IOException {
+        List<String> header = new ArrayList<>();
+        header.add("iteration");
+        header.add("average quotient");
+        header.add("minimum clearance");
+        header.add("crossings");
+        for (int curve = 0; curve < curves.size(); curve++) {
+            header.add("area " + curve);
+            header.add("perimeter " + curve);
+            header.add("quotient " + curve);
+        }
+        CSVPrinter printer = new CSVPrinter(output, CSVFormat.DEFAULT.withHeader(header.toArray(new String[header.size()])));
+        for (Sample sample : samples) {
+            List<Object> record = new ArrayList<>();
+            record.add(sample.iteration);
+            record.add(sample.averageQuotient);
+            record.add(sample.minClearance);
+            record.add(sample.crossings);
+            for (int curve = 0; curve < curves.size(); curve++) {
+                record.add(sample.areas[curve]);
+                record.add(sample.perimeters[curve]);
+                record.add(sample.quotients[curve]);
+            }
+            printer.printRecord(record);
+        }
+        printer.flush();
+    }
+
+    /**
+     * A mirror segment in the spatial hash, with the coordinates of its
+     * extremities, the cells it traverses and the segments crossing it. The
+     * curve and index locate the segment in the packing of a curve containing
+     * it.
+     */
+    private static class Segment {
+
+        private final Edge edge;
+        private final List<Segment> partners = new ArrayList<>(2);
+        private double x0;
+        private double y0;
+        private double x1;
+        private double y1;
+        private long[] keys = new long[0];
+        private int curve;
+        private int index;
+        private int stamp;
+
+        private Segment(Edge edge) {
+            this.edge = edge;
+        }
+    }
+
+    /**
+     * The metrics of an iteration.
+     */
+    public static class Sample {
+
+        public final int iteration;
+        public final double[] areas;
+        public final double[] perimeters;
+        public final double[] quotients;
+        public final double averageQuotient;
+        public final double minClearance;
+        public final int crossings;
+
+        private Sample(int iteration, double[] areas, double[] perimeters, double[] quotients,
+                double averageQuotient, double minClearance, int crossings) {
+            this.iteration = iteration;
+            this.areas = areas;
+            this.perimeters = perimeters;
+            this.quotients = quotients;
+            this.averageQuotient = averageQuotient;
+            this.minClearance = minClearance;
+            this.crossings = crossings;
+        }
+    }
+}
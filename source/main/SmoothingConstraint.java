@@ -0,0 +1,152 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.graph.Edge;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.layout.fdl.impred.ImpredConstraint;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Impred constraints used by the Euler diagram smoothing.
+ */
+public class SmoothingConstraint {
+
+    private SmoothingConstraint() {
+    }
+
+    /**
+     * Surrounding edges constraint that only looks at the curve segments
+     * found in the locator grid within reach of each node. The grid is rebuilt
+     * by Impred at every iteration, so the neighbourhoods follow the nodes as
+     * they move. The constraints are the same as the ones of SurroundingEdges,
+     * but the cost for each node depends on the local density rather than on
+     * the number of surrounding edges.
+     */
+    public static class LocalSurroundingEdges extends ImpredConstraint.SurroundingEdges {
+
+        private final Map<Collection<Edge>, Set<Edge>> edgeSets = new IdentityHashMap<>();
+
+        /**
+         * Builds the constraint.
+         *
+         * @param surroundingEdges the original edges that surround each node.
+         */
+        public LocalSurroundingEdges(NodeAttribute<Collection<Edge>> surroundingEdges) {
+            super(surroundingEdges);
+        }
+
+        @Override
+        protected Collection<Edge> edges(Node node) {
+            Collection<Edge> nodeEdges = surroundingEdges.get(node);
+            double maxMovement = constraints().getDefault();
+            if (nodeEdges.isEmpty() || maxMovement == Double.POSITIVE_INFINITY) {
+                return super.edges(node);
+            }
+
+            Set<Edge> originalEdges = edgeSet(nodeEdges);
+            Set<Edge> edges = new HashSet<>();
+            for (Edge segment : locator().getCloseEdges(node, 3 * maxMovement)) {
+                if (originalEdges.contains(synchronizer().getOriginalEdge(segment))) {
+                    edges.add(segment);
+                }
+            }
+            edges.removeAll(mirrorGraph().inEdges(node));
+            edges.removeAll(mirrorGraph().outEdges(node));
+            return edges;
+        }
+
+        /**
+         * Returns a set with the given surrounding edges. The sets are cached,
+         * as the same collection is usually shared by many nodes.
+         *
+         * @param nodeEdges the surrounding edges of a node.
+         * @return the set of surrounding edges.
+         */
+        private Set<Edge> edgeSet(Collection<Edge> nodeEdges) {
+            Set<Edge> edgeSet = edgeSets.get(nodeEdges);
+            if (edgeSet == null) {
+                edgeSet = new HashSet<>(nodeEdges);
+                edgeSets.put(nodeEdges, edgeSet);
+            }
+            return edgeSet;
+        }
+    }
+
+    /**
+     * Prevents the boxes of the selected nodes, given by their nodeSize
+     * attribute, from starting to overlap. The boxes of a pair separated by a
+     * gap along some axis can each move by half that gap without touching,
+     * so every node is limited to half the smallest gap to its neighbours.
+     * Only the boxes that can meet within the current maximum movement are
+     * considered, and they are found with a spatial hash. Pairs that already
+     * overlap are not limited, and are left to ElementOverlapRepulsion, whose
+     * margin keeps the boxes from resting against each other.
+     */
+    public static class ElementOverlap extends ImpredConstraint {
+
+        private final SpatialHash hash;
+        private final double[] limits;
+
+        /**
+         * Builds the constraint.
+         *
+         * @param selectedNodes the nodes whose boxes should not overlap.
+         */
+        public ElementOverlap(Collection<Node> selectedNodes) {
+            this.hash = new SpatialHash(selectedNodes);
+            this.limits = new double[hash.size()];
+        }
+
+        @Override
+        protected NodeAttribute<Double> computeConstraints() {
+            NodeAttribute<Double> result = new NodeAttribute<>(Double.POSITIVE_INFINITY);
+            double maxMovement = constraints().getDefault();
+            if (maxMovement == Double.POSITIVE_INFINITY) {
+                return result;
+            }
+
+            hash.update(mirrorGraph(), mirrorPositions(), 2 * maxMovement);
+            Arrays.fill(limits, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < hash.size(); i++) {
+                int count = hash.neighbours(i);
+                for (int k = 0; k < count; k++) {
+                    int j = hash.neighbour(k);
+                    double gapX = Math.abs(hash.x(i) - hash.x(j)) - hash.halfWidth(i) - hash.halfWidth(j);
+                    double gapY = Math.abs(hash.y(i) - hash.y(j)) - hash.halfHeight(i) - hash.halfHeight(j);
+                    double gap = Math.max(gapX, gapY);
+                    if (gap < 0) {
+                        continue;
+                    }
+                    limits[i] = Math.min(limits[i], gap / 2);
+                    limits[j] = Math.min(limits[j], gap / 2);
+                }
+            }
+            for (int i = 0; i < hash.size(); i++) {
+                if (limits[i] < maxMovement) {
+                    result.set(hash.node(i), limits[i]);
+                }
+            }
+            return result;
+        }
+    }
+}
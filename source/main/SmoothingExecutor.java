@@ -0,0 +1,227 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent smoothing tests in parallel on a fixed pool of threads.
+ * Submissions block when the queue of waiting tests is full, and each test can
+ * be given a time limit after which it is cancelled.
+ */
+public class SmoothingExecutor implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+
+    /**
+     * Constructs an executor with a thread per available processor and a
+     * queue of the same size.
+     */
+    public SmoothingExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an executor with the given number of threads and a queue of
+     * the same size.
+     *
+     * @param threads the number of threads.
+     */
+    public SmoothingExecutor(int threads) {
+        this(threads, threads);
+    }
+
+    /**
+     * Constructs an executor.
+     *
+     * @param threads the number of threads.
+     * @param queueCapacity the maximum number of tests waiting for a thread.
+     */
+    public SmoothingExecutor(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid executor size: " + threads + " threads, " + queueCapacity + " queued tests.");
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("smoothing"));
+        slots = new Semaphore(threads + queueCapacity);
+    }
+
+    /**
+     * Submits a test without time limit. The test graph and parameters must
+     * have already been set, e.g. by calling reset.
+     *
+     * @param test the test.
+     * @return the run, whose result are the statistics of the test.
+     * @throws InterruptedException if interrupted while waiting for space in
+     * the queue.
+     */
+    public SmoothingRun<SmoothingTest.Statistics> submit(SmoothingTest test) throws InterruptedException {
+        return submit(test, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Submits a test, waiting for space in the queue if necessary. The test
+     * graph and parameters must have already been set, e.g. by calling reset.
+     *
+     * @param test the test.
+     * @param timeout the maximum running time, or 0 for no limit.
+     * @param unit the time unit of the timeout.
+     * @return the run, whose result are the statistics of the test. The run
+     * is cancelled if the time limit is exceeded.
+     * @throws InterruptedException if interrupted while waiting for space in
+     * the queue.
+     */
+    public SmoothingRun<SmoothingTest.Statistics> submit(SmoothingTest test, long timeout, TimeUnit unit) throws InterruptedException {
+        return submit(new MeasureTask(test), timeout, unit);
+    }
+
+    /**
+     * Submits a generic task, waiting for space in the queue if necessary. The
+     * task must regularly call SmoothingRun.checkpoint, as the smoothing tests
+     * do between iterations, to honour cancellation, pauses and time limit.
+     *
+     * @param <T> the result type.
+     * @param task the task.
+     * @param timeout the maximum running time, or 0 for no limit.
+     * @param unit the time unit of the timeout.
+     * @return the run of the task.
+     * @throws InterruptedException if interrupted while waiting for space in
+     * the queue.
+     */
+    public <T> SmoothingRun<T> submit(Callable<T> task, long timeout, TimeUnit unit) throws InterruptedException {
+        slots.acquire();
+        TimedTask<T> timedTask = new TimedTask<>(task, timeout, unit);
+        try {
+            executor.execute(timedTask);
+        } catch (RejectedExecutionException exception) {
+            slots.release();
+            throw exception;
+        }
+        return timedTask;
+    }
+
+    /**
+     * Submits a generic task only if there is space in the queue, so that the
+     * caller can shed the load instead of waiting.
+     *
+     * @param <T> the result type.
+     * @param task the task.
+     * @param timeout the maximum running time, or 0 for no limit.
+     * @param unit the time unit of the timeout.
+     * @return the run of the task, or null if the queue is full.
+     */
+    public <T> SmoothingRun<T> trySubmit(Callable<T> task, long timeout, TimeUnit unit) {
+        if (!slots.tryAcquire()) {
+            return null;
+        }
+        TimedTask<T> timedTask = new TimedTask<>(task, timeout, unit);
+        try {
+            executor.execute(timedTask);
+        } catch (RejectedExecutionException exception) {
+            slots.release();
+            throw exception;
+        }
+        return timedTask;
+    }
+
+    /**
+     * Stops accepting new tests and cancels the running and waiting ones.
+     */
+    public void cancelAll() {
+        for (Runnable waiting : executor.shutdownNow()) {
+            ((Future<?>) waiting).cancel(false);
+        }
+    }
+
+    /**
+     * Stops accepting new tests and waits for the submitted ones to terminate.
+     * If interrupted while waiting, the remaining tests are cancelled.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        cancelAll();
+    }
+
+    /**
+     * Runs a test and collects its statistics.
+     */
+    private static class MeasureTask implements Callable<SmoothingTest.Statistics> {
+
+        private final SmoothingTest test;
+
+        public MeasureTask(SmoothingTest test) {
+            this.test = test;
+        }
+
+        @Override
+        public SmoothingTest.Statistics call() {
+            return test.measure();
+        }
+    }
+
+    /**
+     * Runs a task, freeing its queue slot when done.
+     *
+     * @param <T> the result type.
+     */
+    private class TimedTask<T> extends SmoothingRun<T> {
+
+        public TimedTask(Callable<T> task, long timeout, TimeUnit unit) {
+            super(task, timeout, unit);
+        }
+
+        @Override
+        protected void done() {
+            slots.release();
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that pending tests do not prevent the
+     * virtual machine from exiting.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,1138 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute;
+import ocotillo.graph.StdAttribute.NodeShape;
+import ocotillo.graph.extra.BendExplicitGraphSynchroniser.MirrorEdge;
+import ocotillo.graph.layout.fdl.impred.ImpredForce;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Impred forces used by the Euler diagram smoothing.
+ */
+public class SmoothingForce {
+
+    private SmoothingForce() {
+    }
+
+    /**
+     * Edge-node repulsion between the selected edges and nodes that only
+     * considers the nodes found in the locator grid around each edge. It
+     * computes the same forces as SelectedEdgeNodeRepulsion, but without
+     * scanning the whole node set for every edge.
+     */
+    public static class GridEdgeNodeRepulsion extends ImpredForce.SelectedEdgeNodeRepulsion {
+
+        private final Set<Node> selectedNodeSet;
+
+        /**
+         * Builds the force.
+         *
+         * @param edgeNodeDistance the desired edge-node distance.
+         * @param selectedEdges the edges that repel the nodes.
+         * @param selectedNodes the nodes that are repelled.
+         */
+        public GridEdgeNodeRepulsion(double edgeNodeDistance, Collection<Edge> selectedEdges, Collection<Node> selectedNodes) {
+            super(edgeNodeDistance, selectedEdges, selectedNodes);
+            this.selectedNodeSet = new HashSet<>(selectedNodes);
+        }
+
+        @Override
+        protected Collection<Node> nodes(Edge edge) {
+            Collection<Node> closeNodes = locator().getCloseNodes(edge, distanceActivityFactor * edgeNodeDistance);
+            Set<Node> nodes = new HashSet<>();
+            for (Node node : closeNodes) {
+                if (selectedNodeSet.contains(node)) {
+                    nodes.add(node);
+                }
+            }
+            nodes.remove(edge.source());
+            nodes.remove(edge.target());
+            return nodes;
+        }
+    }
+
+    /**
+     * Grid edge-node repulsion that evaluates the edges in parallel. The
+     * mirror segments are split in fixed chunks, and each chunk records the
+     * forces it generates in its own accumulator. The accumulators are then
+     * reduced in chunk order, and the nodes close to a segment are processed
+     * by id, so that the result is deterministic and does not depend on the
+     * number of threads.
+     */
+    public static class ParallelEdgeNodeRepulsion extends GridEdgeNodeRepulsion {
+
+        private static final int chunkSize = 32;
+
+        private static final Comparator<Node> idOrder = new Comparator<Node>() {
+
+            @Override
+            public int compare(Node first, Node second) {
+                return first.id().compareTo(second.id());
+            }
+        };
+
+        private final ForkJoinPool pool;
+
+        /**
+         * Builds the force.
+         *
+         * @param edgeNodeDistance the desired edge-node distance.
+         * @param selectedEdges the edges that repel the nodes.
+         * @param selectedNodes the nodes that are repelled.
+         * @param pool the pool used to process the edges.
+         */
+        public ParallelEdgeNodeRepulsion(double edgeNodeDistance, Collection<Edge> selectedEdges, Collection<Node> selectedNodes, ForkJoinPool pool) {
+            super(edgeNodeDistance, selectedEdges, selectedNodes);
+            this.pool = pool;
+        }
+
+        @Override
+        protected NodeAttribute<Coordinates> computeForces() {
+            final List<Edge> segments = new ArrayList<>();
+            for (Edge edge : selectedEdges) {
+                segments.addAll(synchronizer().getMirrorEdge(edge).segments());
+            }
+
+            List<ForceAccumulator> accumulators = new ArrayList<>();
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int from = 0; from < segments.size(); from += chunkSize) {
+                final int chunkFrom = from;
+                final int chunkTo = Math.min(from + chunkSize, segments.size());
+                final ForceAccumulator accumulator = new ForceAccumulator();
+                accumulators.add(accumulator);
+                tasks.add(new RecursiveAction() {
+
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void compute() {
+                        for (int i = chunkFrom; i < chunkTo; i++) {
+                            Edge segment = segments.get(i);
+                            List<Node> closeNodes = new ArrayList<>(nodes(segment));
+                            Collections.sort(closeNodes, idOrder);
+                            for (Node node : closeNodes) {
+                                Coordinates[] nodeForces = computeForces(segment, node);
+                                accumulator.add(segment.source(), nodeForces[0]);
+                                accumulator.add(segment.target(), nodeForces[1]);
+                                accumulator.add(node, nodeForces[2]);
+                            }
+                        }
+                    }
+                });
+            }
+            invokeAll(pool, tasks);
+
+            Map<Node, Coordinates> sums = new HashMap<>();
+            for (ForceAccumulator accumulator : accumulators) {
+                for (int i = 0; i < accumulator.size; i++) {
+                    Coordinates sum = sums.get(accumulator.nodes[i]);
+                    if (sum == null) {
+                        sum = new Coordinates(0, 0);
+                        sums.put(accumulator.nodes[i], sum);
+                    }
+                    sum.setX(sum.x() + accumulator.forceX[i]);
+                    sum.setY(sum.y() + accumulator.forceY[i]);
+                }
+            }
+            NodeAttribute<Coordinates> forces = new NodeAttribute<>(new Coordinates(0, 0));
+            for (Map.Entry<Node, Coordinates> entry : sums.entrySet()) {
+                forces.set(entry.getKey(), entry.getValue());
+            }
+            return forces;
+        }
+    }
+
+    /**
+     * The forces generated by a chunk of work, in generation order.
+     */
+    private static class ForceAccumulator {
+
+        private Node[] nodes = new Node[64];
+        private double[] forceX = new double[64];
+        private double[] forceY = new double[64];
+        private int size;
+
+        public void add(Node node, Coordinates force) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                forceX = Arrays.copyOf(forceX, size * 2);
+                forceY = Arrays.copyOf(forceY, size * 2);
+            }
+            nodes[size] = node;
+            forceX[size] = force.x();
+            forceY[size] = force.y();
+            size++;
+        }
+    }
+
+    /**
+     * Runs the given tasks in a pool and waits for their completion.
+     *
+     * @param pool the pool.
+     * @param tasks the tasks.
+     */
+    private static void invokeAll(ForkJoinPool pool, final List<? extends ForkJoinTask<?>> tasks) {
+        pool.invoke(new RecursiveAction() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Curve smoothing force that works on packed coordinate arrays. The mirror
+     * nodes of each curve are stored in cyclic order, and their positions are
+     * copied once per iteration into primitive arrays, where the forces are
+     * computed without allocations. The packing is only recomputed when the
+     * flexible edges add or remove bends. The forces are the same as the ones
+     * of CurveSmoothing.
+     * <p>
+     * If a pool is given, the curves are split in chunks of consecutive nodes
+     * that are processed in parallel. Each chunk writes the force of its own
+     * positions, and the forces of the nodes shared by more curves are then
+     * summed in position order, so that the result does not depend on the
+     * number of threads.
+     */
+    public static class PackedCurveSmoothing extends ImpredForce {
+
+        private static final double smoothingFactor = 2.0 / 3.0;
+        private static final int chunkSize = 256;
+
+        private final List<List<Edge>> curves;
+        private final ForkJoinPool pool;
+        private final NodeAttribute<Coordinates> forces = new NodeAttribute<>(new Coordinates(0, 0));
+
+        private Node[] nodes = new Node[0];
+        private int[] curveStart = new int[0];
+        private int[] slots = new int[0];
+        private double[] x = new double[0];
+        private double[] y = new double[0];
+        private Node[] slotNodes = new Node[0];
+        private Coordinates[] slotForces = new Coordinates[0];
+        private double[] forceX = new double[0];
+        private double[] forceY = new double[0];
+        private double[] positionForceX = new double[0];
+        private double[] positionForceY = new double[0];
+
+        /**
+         * Builds the force.
+         *
+         * @param curves the edges of each curve, in cyclic order.
+         */
+        public PackedCurveSmoothing(List<List<Edge>> curves) {
+            this(curves, null);
+        }
+
+        /**
+         * Builds the force.
+         *
+         * @param curves the edges of each curve, in cyclic order.
+         * @param pool the pool used to process the curves in parallel, or
+         * null to process them sequentially.
+         */
+        public PackedCurveSmoothing(List<List<Edge>> curves, ForkJoinPool pool) {
+            this.curves = curves;
+            this.pool = pool;
+        }
+
+        @Override
+        protected NodeAttribute<Coordinates> computeForces() {
+            if (!isPackingValid()) {
+                pack();
+            }
+
+            NodeAttribute<Coordinates> positions = mirrorPositions();
+            for (int i = 0; i < nodes.length; i++) {
+                Coordinates position = positions.get(nodes[i]);
+                x[i] = position.x();
+                y[i] = position.y();
+            }
+
+            if (pool != null && nodes.length > chunkSize) {
+                computeChunksInParallel();
+            } else {
+                for (int curve = 0; curve < curveStart.length - 1; curve++) {
+                    computeChunk(curveStart[curve], curveStart[curve + 1], curveStart[curve], curveStart[curve + 1]);
+                }
+            }
+
+            for (int slot = 0; slot < slotNodes.length; slot++) {
+                forceX[slot] = 0;
+                forceY[slot] = 0;
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                forceX[slots[i]] += positionForceX[i];
+                forceY[slots[i]] += positionForceY[i];
+            }
+
+            for (int slot = 0; slot < slotNodes.length; slot++) {
+                slotForces[slot].setX(forceX[slot]);
+                slotForces[slot].setY(forceY[slot]);
+            }
+            return forces;
+        }
+
+        /**
+         * Computes the forces of the positions between from and to, which
+         * belong to the curve between start and end.
+         */
+        private void computeChunk(int from, int to, int start, int end) {
+            for (int i = from; i < to; i++) {
+                int previous = i == start ? end - 1 : i - 1;
+                int next = i == end - 1 ? start : i + 1;
+                positionForceX[i] = ((x[previous] + x[next]) / 2 - x[i]) * smoothingFactor;
+                positionForceY[i] = ((y[previous] + y[next]) / 2 - y[i]) * smoothingFactor;
+            }
+        }
+
+        private void computeChunksInParallel() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int curve = 0; curve < curveStart.length - 1; curve++) {
+                final int start = curveStart[curve];
+                final int end = curveStart[curve + 1];
+                for (int from = start; from < end; from += chunkSize) {
+                    final int chunkFrom = from;
+                    final int chunkTo = Math.min(from + chunkSize, end);
+                    tasks.add(new RecursiveAction() {
+
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected void compute() {
+                            computeChunk(chunkFrom, chunkTo, start, end);
+                        }
+                    });
+                }
+            }
+            invokeAll(pool, tasks);
+        }
+
+        /**
+         * Checks whether the packed nodes still correspond to the mirror
+         * segments of the curves.
+         *
+         * @return true if the packing is valid.
+         */
+        private boolean isPackingValid() {
+            int i = 0;
+            for (List<Edge> curve : curves) {
+                Node currentNode = commonExtremity(curve.get(0), curve.get(curve.size() - 1));
+                for (Edge edge : curve) {
+                    MirrorEdge mirrorEdge = synchronizer().getMirrorEdge(edge);
+                    boolean forward = mirrorEdge.source() == currentNode;
+                    Iterator<Node> bends = forward ? mirrorEdge.bends().iterator() : reversedBends(mirrorEdge);
+                    if (i >= nodes.length || nodes[i++] != currentNode) {
+                        return false;
+                    }
+                    while (bends.hasNext()) {
+                        if (i >= nodes.length || nodes[i++] != bends.next()) {
+                            return false;
+                        }
+                    }
+                    currentNode = forward ? mirrorEdge.target() : mirrorEdge.source();
+                }
+            }
+            return i == nodes.length;
+        }
+
+        /**
+         * Packs the mirror nodes of the curves in cyclic order.
+         */
+        private void pack() {
+            List<Node> nodeList = new ArrayList<>();
+            curveStart = new int[curves.size() + 1];
+            for (int curveIdx = 0; curveIdx < curves.size(); curveIdx++) {
+                List<Edge> curve = curves.get(curveIdx);
+                curveStart[curveIdx] = nodeList.size();
+                Node currentNode = commonExtremity(curve.get(0), curve.get(curve.size() - 1));
+                for (Edge edge : curve) {
+                    MirrorEdge mirrorEdge = synchronizer().getMirrorEdge(edge);
+                    boolean forward = mirrorEdge.source() == currentNode;
+                    Iterator<Node> bends = forward ? mirrorEdge.bends().iterator() : reversedBends(mirrorEdge);
+                    nodeList.add(currentNode);
+                    while (bends.hasNext()) {
+                        nodeList.add(bends.next());
+                    }
+                    currentNode = forward ? mirrorEdge.target() : mirrorEdge.source();
+                }
+            }
+            curveStart[curves.size()] = nodeList.size();
+
+            nodes = nodeList.toArray(new Node[nodeList.size()]);
+            slots = new int[nodes.length];
+            x = new double[nodes.length];
+            y = new double[nodes.length];
+            positionForceX = new double[nodes.length];
+            positionForceY = new double[nodes.length];
+
+            Map<Node, Integer> slotMap = new HashMap<>();
+            List<Node> slotNodeList = new ArrayList<>();
+            for (int i = 0; i < nodes.length; i++) {
+                Integer slot = slotMap.get(nodes[i]);
+                if (slot == null) {
+                    slot = slotNodeList.size();
+                    slotMap.put(nodes[i], slot);
+                    slotNodeList.add(nodes[i]);
+                }
+                slots[i] = slot;
+            }
+
+            slotNodes = slotNodeList.toArray(new Node[slotNodeList.size()]);
+            slotForces = new Coordinates[slotNodes.length];
+            forceX = new double[slotNodes.length];
+            forceY = new double[slotNodes.length];
+            forces.reset();
+            for (int slot = 0; slot < slotNodes.length; slot++) {
+                slotForces[slot] = new Coordinates(0, 0);
+                forces.set(slotNodes[slot], slotForces[slot]);
+            }
+        }
+
+        private static Iterator<Node> reversedBends(MirrorEdge mirrorEdge) {
+            List<Node> bends = mirrorEdge.bends();
+            final ListIterator<Node> iterator = bends.listIterator(bends.size());
+            return new Iterator<Node>() {
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasPrevious();
+                }
+
+                @Override
+                public Node next() {
+                    return iterator.previous();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private static Node commonExtremity(Edge first, Edge second) {
+            if (first.source() == second.source() || first.source() == second.target()) {
+                return first.source();
+            } else if (first.target() == second.source() || first.target() == second.target()) {
+                return first.target();
+            }
+            throw new IllegalArgumentException("The edges have no extremities in common.");
+        }
+    }
+
+    /**
+     * Node-node repulsion between the selected nodes that works on packed
+     * coordinate arrays. The positions and glyph sizes of the nodes are copied
+     * once per iteration into primitive arrays sorted by x, which are swept so
+     * that only the pairs within the activity range along x are visited. The
+     * inner loop only reads and writes primitive arrays, and does not allocate.
+     * <p>
+     * The forces are the ones of SelectedNodeNodeRepulsion for nodes with
+     * cuboid or spheroid glyphs. The library force takes the candidate pairs
+     * from the locator buckets overlapping the node box expanded by the
+     * activity range, while this force uses the expanded box itself, so the
+     * two differ only for the pairs in the partially covered buckets.
+     */
+    public static class PackedNodeNodeRepulsion extends ImpredForce {
+
+        public double distanceActivityFactor = 3.0;
+        public double initialExponent = 2.0;
+        public double finalExponent = 2.0;
+
+        private final double nodeNodeDistance;
+        private final Node[] nodes;
+        private final Coordinates[] nodeForces;
+        private final NodeAttribute<Coordinates> forces = new NodeAttribute<>(new Coordinates(0, 0));
+        private final int[] order;
+        private final double[] nodeX;
+        private final double[] x;
+        private final double[] y;
+        private final double[] halfWidth;
+        private final double[] halfHeight;
+        private final boolean[] spheroid;
+        private final double[] forceX;
+        private final double[] forceY;
+
+        /**
+         * Builds the force.
+         *
+         * @param nodeNodeDistance the desired node-node distance.
+         * @param selectedNodes the nodes that repel each other.
+         */
+        public PackedNodeNodeRepulsion(double nodeNodeDistance, Collection<Node> selectedNodes) {
+            this.nodeNodeDistance = nodeNodeDistance;
+            this.nodes = selectedNodes.toArray(new Node[selectedNodes.size()]);
+            int count = nodes.length;
+            this.nodeForces = new Coordinates[count];
+            this.order = new int[count];
+            this.nodeX = new double[count];
+            this.x = new double[count];
+            this.y = new double[count];
+            this.halfWidth = new double[count];
+            this.halfHeight = new double[count];
+            this.spheroid = new boolean[count];
+            this.forceX = new double[count];
+            this.forceY = new double[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+                nodeForces[i] = new Coordinates(0, 0);
+                forces.set(nodes[i], nodeForces[i]);
+            }
+        }
+
+        @Override
+        protected double desiredDistance() {
+            return nodeNodeDistance;
+        }
+
+        @Override
+        protected NodeAttribute<Coordinates> computeForces() {
+            NodeAttribute<Coordinates> positions = mirrorPositions();
+            for (int i = 0; i < nodes.length; i++) {
+                nodeX[i] = positions.get(nodes[i]).x();
+            }
+            sortOrder();
+            double maxHalfWidth = pack(positions);
+
+            double temperature = temperature();
+            double exponent = finalExponent + (initialExponent - finalExponent) * temperature;
+            double range = distanceActivityFactor * nodeNodeDistance;
+            for (int i = 0; i < nodes.length; i++) {
+                forceX[i] = 0;
+                forceY[i] = 0;
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                double reachX = range + halfWidth[i];
+                double limitX = x[i] + reachX + maxHalfWidth;
+                for (int j = i + 1; j < nodes.length && x[j] <= limitX; j++) {
+                    double dx = x[i] - x[j];
+                    double dy = y[i] - y[j];
+                    if (Math.abs(dx) > reachX + halfWidth[j] || Math.abs(dy) > range + halfHeight[i] + halfHeight[j]) {
+                        continue;
+                    }
+                    double distance = Math.sqrt(dx * dx + dy * dy);
+                    if (distance == 0) {
+                        continue;
+                    }
+                    double unitX = dx / distance;
+                    double unitY = dy / distance;
+                    double gap = glyphRadius(i, unitX, unitY) + glyphRadius(j, unitX, unitY);
+                    double shift = gap * (1 - temperature);
+                    double currentDistance = Math.max(0.01, distance - shift);
+                    double desiredDistance = nodeNodeDistance + gap - shift;
+                    double ratio = desiredDistance / currentDistance;
+                    double magnitude = exponent == 2 ? ratio * ratio : Math.pow(ratio, exponent);
+                    forceX[i] += unitX * magnitude;
+                    forceY[i] += unitY * magnitude;
+                    forceX[j] -= unitX * magnitude;
+                    forceY[j] -= unitY * magnitude;
+                }
+            }
+
+            for (int i = 0; i < nodes.length; i++) {
+                nodeForces[order[i]].setX(forceX[i]);
+                nodeForces[order[i]].setY(forceY[i]);
+            }
+            return forces;
+        }
+
+        /**
+         * Sorts the node order by x. The nodes move little between iterations,
+         * so the order of the previous iteration is almost sorted and an
+         * insertion sort takes linear time.
+         */
+        private void sortOrder() {
+            for (int i = 1; i < order.length; i++) {
+                int node = order[i];
+                double key = nodeX[node];
+                int j = i - 1;
+                while (j >= 0 && nodeX[order[j]] > key) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = node;
+            }
+        }
+
+        /**
+         * Copies the positions and glyph sizes of the nodes in sorted order.
+         *
+         * @return the largest half width of the glyphs.
+         */
+        private double pack(NodeAttribute<Coordinates> positions) {
+            Graph mirror = mirrorGraph();
+            NodeAttribute<Coordinates> sizes = mirror.hasNodeAttribute(StdAttribute.nodeSize)
+                    ? mirror.<Coordinates>nodeAttribute(StdAttribute.nodeSize) : null;
+            NodeAttribute<NodeShape> shapes = mirror.hasNodeAttribute(StdAttribute.nodeShape)
+                    ? mirror.<NodeShape>nodeAttribute(StdAttribute.nodeShape) : null;
+            double maxHalfWidth = 0;
+            for (int i = 0; i < order.length; i++) {
+                Node node = nodes[order[i]];
+                Coordinates position = positions.get(node);
+                x[i] = position.x();
+                y[i] = position.y();
+                Coordinates size = sizes != null ? sizes.get(node) : null;
+                halfWidth[i] = size != null ? size.x() / 2 : 0;
+                halfHeight[i] = size != null ? size.y() / 2 : 0;
+                spheroid[i] = shapes != null && shapes.get(node) == NodeShape.spheroid;
+                maxHalfWidth = Math.max(maxHalfWidth, halfWidth[i]);
+            }
+            return maxHalfWidth;
+        }
+
+        /**
+         * Computes the distance between the centre and the border of a glyph
+         * in the given direction, as Layout2D.nodeGlyphRadiusAtAngle.
+         */
+        private double glyphRadius(int i, double unitX, double unitY) {
+            return radiusAtDirection(halfWidth[i], halfHeight[i], spheroid[i], unitX, unitY);
+        }
+    }
+
+    /**
+     * Approximate node-node repulsion between the selected nodes, backed by a
+     * quadtree rebuilt at every iteration. The nodes of each leaf walk the
+     * tree together: the cells beyond the activity range are skipped, the
+     * cells within the range that are small compared to their distance from
+     * the leaf are summarised by their centroid, and the remaining ones are
+     * opened down to the leaves, whose nodes repel exactly. A cell is
+     * summarised only when its centroid is farther than the exact range, so
+     * close nodes are never approximated.
+     * <p>
+     * With an opening angle of 0 no cell is summarised, and the forces are
+     * the ones of PackedNodeNodeRepulsion. The summaries save the most when
+     * the activity range spans many cells. The walks of different leaves are
+     * independent, and if a pool is given they are split in chunks that are
+     * processed in parallel.
+     */
+    public static class BarnesHutNodeRepulsion extends ImpredForce {
+
+        private static final int leafCapacity = 8;
+        private static final int maxDepth = 24;
+        private static final int chunkSize = 256;
+
+        public double distanceActivityFactor = 3.0;
+        public double exactRangeFactor = 1.0;
+        public double initialExponent = 2.0;
+        public double finalExponent = 2.0;
+
+        private final double nodeNodeDistance;
+        private final double openingAngle;
+        private final ForkJoinPool pool;
+        private final Node[] nodes;
+        private final Coordinates[] nodeForces;
+        private final NodeAttribute<Coordinates> forces = new NodeAttribute<>(new Coordinates(0, 0));
+        private final double[] x;
+        private final double[] y;
+        private final double[] halfWidth;
+        private final double[] halfHeight;
+        private final boolean[] spheroid;
+        private final double[] forceX;
+        private final double[] forceY;
+        private final int[] permutation;
+        private final double[] scratch;
+
+        private int cellCount;
+        private double[] cellX = new double[64];
+        private double[] cellY = new double[64];
+        private double[] cellHalfSize = new double[64];
+        private double[] centroidX = new double[64];
+        private double[] centroidY = new double[64];
+        private double[] meanHalfWidth = new double[64];
+        private double[] meanHalfHeight = new double[64];
+        private int[] mass = new int[64];
+        private int[] firstChild = new int[64];
+        private int[] leafStart = new int[64];
+        private int[] leaves = new int[64];
+        private int leafCount;
+        private double maxHalfWidth;
+        private double maxHalfHeight;
+        private double temperature;
+        private double exponent;
+
+        /**
+         * Builds the force.
+         *
+         * @param nodeNodeDistance the desired node-node distance.
+         * @param selectedNodes the nodes that repel each other.
+         * @param openingAngle the maximum ratio between the size of a cell
+         * and its distance from the nodes for the cell to be summarised.
+         * @param pool the pool used to process the nodes in parallel, or null
+         * to process them sequentially.
+         */
+        public BarnesHutNodeRepulsion(double nodeNodeDistance, Collection<Node> selectedNodes, double openingAngle, ForkJoinPool pool) {
+            if (openingAngle < 0) {
+                throw new IllegalArgumentException("The opening angle cannot be negative.");
+            }
+            this.nodeNodeDistance = nodeNodeDistance;
+            this.openingAngle = openingAngle;
+            this.pool = pool;
+            this.nodes = selectedNodes.toArray(new Node[selectedNodes.size()]);
+            int count = nodes.length;
+            this.nodeForces = new Coordinates[count];
+            this.x = new double[count];
+            this.y = new double[count];
+            this.halfWidth = new double[count];
+            this.halfHeight = new double[count];
+            this.spheroid = new boolean[count];
+            this.forceX = new double[count];
+            this.forceY = new double[count];
+            this.permutation = new int[count];
+            this.scratch = new double[count];
+            for (int i = 0; i < count; i++) {
+                nodeForces[i] = new Coordinates(0, 0);
+                forces.set(nodes[i], nodeForces[i]);
+            }
+        }
+
+        @Override
+        protected double desiredDistance() {
+            return nodeNodeDistance;
+        }
+
+        @Override
+        protected NodeAttribute<Coordinates> computeForces() {
+            if (nodes.length == 0) {
+                return forces;
+            }
+            pack();
+            build();
+            temperature = temperature();
+            exponent = finalExponent + (initialExponent - finalExponent) * temperature;
+
+            if (pool != null && leafCount > chunkSize) {
+                List<RecursiveAction> tasks = new ArrayList<>();
+                for (int from = 0; from < leafCount; from += chunkSize) {
+                    final int chunkFrom = from;
+                    final int chunkTo = Math.min(from + chunkSize, leafCount);
+                    tasks.add(new RecursiveAction() {
+
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected void compute() {
+                            computeChunk(chunkFrom, chunkTo);
+                        }
+                    });
+                }
+                invokeAll(pool, tasks);
+            } else {
+                computeChunk(0, leafCount);
+            }
+
+            for (int k = 0; k < nodes.length; k++) {
+                nodeForces[permutation[k]].setX(forceX[k]);
+                nodeForces[permutation[k]].setY(forceY[k]);
+            }
+            return forces;
+        }
+
+        /**
+         * Copies the positions and glyph sizes of the nodes.
+         */
+        private void pack() {
+            NodeAttribute<Coordinates> positions = mirrorPositions();
+            Graph mirror = mirrorGraph();
+            NodeAttribute<Coordinates> sizes = mirror.hasNodeAttribute(StdAttribute.nodeSize)
+                    ? mirror.<Coordinates>nodeAttribute(StdAttribute.nodeSize) : null;
+            NodeAttribute<NodeShape> shapes = mirror.hasNodeAttribute(StdAttribute.nodeShape)
+                    ? mirror.<NodeShape>nodeAttribute(StdAttribute.nodeShape) : null;
+            maxHalfWidth = 0;
+            maxHalfHeight = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                Coordinates position = positions.get(nodes[i]);
+                x[i] = position.x();
+                y[i] = position.y();
+                Coordinates size = sizes != null ? sizes.get(nodes[i]) : null;
+                halfWidth[i] = size != null ? size.x() / 2 : 0;
+                halfHeight[i] = size != null ? size.y() / 2 : 0;
+                spheroid[i] = shapes != null && shapes.get(nodes[i]) == NodeShape.spheroid;
+                maxHalfWidth = Math.max(maxHalfWidth, halfWidth[i]);
+                maxHalfHeight = Math.max(maxHalfHeight, halfHeight[i]);
+                permutation[i] = i;
+            }
+        }
+
+        /**
+         * Builds the quadtree. The nodes of each cell are stored contiguously
+         * in the permutation array, and the four children of a cell are
+         * stored in consecutive cells. The node data is then reordered as the
+         * permutation, so that the nodes of a cell, as well as the nodes
+         * walking the tree one after the other, are close in memory.
+         */
+        private void build() {
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < nodes.length; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            cellCount = 0;
+            leafCount = 0;
+            int root = newCell((minX + maxX) / 2, (minY + maxY) / 2, Math.max(maxX - minX, maxY - minY) / 2);
+            split(root, 0, nodes.length, 0);
+            reorder(x);
+            reorder(y);
+            reorder(halfWidth);
+            reorder(halfHeight);
+            for (int k = 0; k < nodes.length; k++) {
+                scratch[k] = spheroid[permutation[k]] ? 1 : 0;
+            }
+            for (int k = 0; k < nodes.length; k++) {
+                spheroid[k] = scratch[k] != 0;
+            }
+        }
+
+        private void reorder(double[] values) {
+            for (int k = 0; k < nodes.length; k++) {
+                scratch[k] = values[permutation[k]];
+            }
+            System.arraycopy(scratch, 0, values, 0, nodes.length);
+        }
+
+        private void split(int cell, int from, int to, int depth) {
+            leafStart[cell] = from;
+            mass[cell] = to - from;
+            double sumX = 0;
+            double sumY = 0;
+            double sumHalfWidth = 0;
+            double sumHalfHeight = 0;
+            for (int k = from; k < to; k++) {
+                int i = permutation[k];
+                sumX += x[i];
+                sumY += y[i];
+                sumHalfWidth += halfWidth[i];
+                sumHalfHeight += halfHeight[i];
+            }
+            centroidX[cell] = sumX / mass[cell];
+            centroidY[cell] = sumY / mass[cell];
+            meanHalfWidth[cell] = sumHalfWidth / mass[cell];
+            meanHalfHeight[cell] = sumHalfHeight / mass[cell];
+            firstChild[cell] = -1;
+            if (to - from <= leafCapacity || depth == maxDepth) {
+                if (leafCount == leaves.length) {
+                    leaves = Arrays.copyOf(leaves, leafCount * 2);
+                }
+                leaves[leafCount++] = cell;
+                return;
+            }
+
+            double middleX = cellX[cell];
+            double middleY = cellY[cell];
+            int middle = partition(from, to, middleY, false);
+            int lowerMiddle = partition(from, middle, middleX, true);
+            int upperMiddle = partition(middle, to, middleX, true);
+            double quarter = cellHalfSize[cell] / 2;
+            int child = newCell(middleX - quarter, middleY - quarter, quarter);
+            newCell(middleX + quarter, middleY - quarter, quarter);
+            newCell(middleX - quarter, middleY + quarter, quarter);
+            newCell(middleX + quarter, middleY + quarter, quarter);
+            firstChild[cell] = child;
+            split(child, from, lowerMiddle, depth + 1);
+            split(child + 1, lowerMiddle, middle, depth + 1);
+            split(child + 2, middle, upperMiddle, depth + 1);
+            split(child + 3, upperMiddle, to, depth + 1);
+        }
+
+        /**
+         * Reorders the nodes between from and to so that the ones below the
+         * given coordinate come first.
+         *
+         * @return the index of the first node not below the coordinate.
+         */
+        private int partition(int from, int to, double value, boolean alongX) {
+            int first = from;
+            int last = to - 1;
+            while (first <= last) {
+                int i = permutation[first];
+                if ((alongX ? x[i] : y[i]) < value) {
+                    first++;
+                } else {
+                    permutation[first] = permutation[last];
+                    permutation[last] = i;
+                    last--;
+                }
+            }
+            return first;
+        }
+
+        private int newCell(double centerX, double centerY, double halfSize) {
+            if (cellCount == cellX.length) {
+                int capacity = cellCount * 2;
+                cellX = Arrays.copyOf(cellX, capacity);
+                cellY = Arrays.copyOf(cellY, capacity);
+                cellHalfSize = Arrays.copyOf(cellHalfSize, capacity);
+                centroidX = Arrays.copyOf(centroidX, capacity);
+                centroidY = Arrays.copyOf(centroidY, capacity);
+                meanHalfWidth = Arrays.copyOf(meanHalfWidth, capacity);
+                meanHalfHeight = Arrays.copyOf(meanHalfHeight, capacity);
+                mass = Arrays.copyOf(mass, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                leafStart = Arrays.copyOf(leafStart, capacity);
+            }
+            cellX[cellCount] = centerX;
+            cellY[cellCount] = centerY;
+            cellHalfSize[cellCount] = halfSize;
+            return cellCount++;
+        }
+
+        /**
+         * Computes the forces of the nodes in the leaves between from and to.
+         * The tree is walked once per leaf, testing the cells against the
+         * bounding box of the leaf nodes, and the resulting leaves and
+         * summarised cells are then shared by all the nodes of the leaf.
+         */
+        private void computeChunk(int from, int to) {
+            double range = distanceActivityFactor * nodeNodeDistance;
+            double exactRange = exactRangeFactor * nodeNodeDistance;
+            int[] stack = new int[3 * maxDepth + 4];
+            int[] near = new int[64];
+            int[] summarised = new int[64];
+            for (int leaf = from; leaf < to; leaf++) {
+                int start = leafStart[leaves[leaf]];
+                int end = start + mass[leaves[leaf]];
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                double leafHalfWidth = 0;
+                double leafHalfHeight = 0;
+                for (int i = start; i < end; i++) {
+                    minX = Math.min(minX, x[i]);
+                    minY = Math.min(minY, y[i]);
+                    maxX = Math.max(maxX, x[i]);
+                    maxY = Math.max(maxY, y[i]);
+                    leafHalfWidth = Math.max(leafHalfWidth, halfWidth[i]);
+                    leafHalfHeight = Math.max(leafHalfHeight, halfHeight[i]);
+                }
+
+                int nearCount = 0;
+                int summarisedCount = 0;
+                int size = 0;
+                stack[size++] = 0;
+                while (size > 0) {
+                    int cell = stack[--size];
+                    double lowX = cellX[cell] - cellHalfSize[cell];
+                    double highX = cellX[cell] + cellHalfSize[cell];
+                    double lowY = cellY[cell] - cellHalfSize[cell];
+                    double highY = cellY[cell] + cellHalfSize[cell];
+                    double gapX = Math.max(lowX - maxX, minX - highX);
+                    double gapY = Math.max(lowY - maxY, minY - highY);
+                    if (mass[cell] == 0 || gapX > range + leafHalfWidth + maxHalfWidth || gapY > range + leafHalfHeight + maxHalfHeight) {
+                        continue;
+                    }
+                    if (firstChild[cell] < 0) {
+                        if (nearCount == near.length) {
+                            near = Arrays.copyOf(near, nearCount * 2);
+                        }
+                        near[nearCount++] = cell;
+                        continue;
+                    }
+                    if (gapX > 0 || gapY > 0) {
+                        double centroidGapX = Math.max(0, Math.max(minX - centroidX[cell], centroidX[cell] - maxX));
+                        double centroidGapY = Math.max(0, Math.max(minY - centroidY[cell], centroidY[cell] - maxY));
+                        double distance = Math.sqrt(centroidGapX * centroidGapX + centroidGapY * centroidGapY);
+                        boolean inRange = Math.max(highX - minX, maxX - lowX) <= range
+                                && Math.max(highY - minY, maxY - lowY) <= range;
+                        if (inRange && distance > exactRange && 2 * cellHalfSize[cell] < openingAngle * distance) {
+                            if (summarisedCount == summarised.length) {
+                                summarised = Arrays.copyOf(summarised, summarisedCount * 2);
+                            }
+                            summarised[summarisedCount++] = cell;
+                            continue;
+                        }
+                    }
+                    int child = firstChild[cell];
+                    stack[size++] = child;
+                    stack[size++] = child + 1;
+                    stack[size++] = child + 2;
+                    stack[size++] = child + 3;
+                }
+
+                for (int i = start; i < end; i++) {
+                    double reachX = range + halfWidth[i];
+                    double reachY = range + halfHeight[i];
+                    double sumX = 0;
+                    double sumY = 0;
+                    for (int n = 0; n < nearCount; n++) {
+                        int cell = near[n];
+                        for (int j = leafStart[cell]; j < leafStart[cell] + mass[cell]; j++) {
+                            double dx = x[i] - x[j];
+                            double dy = y[i] - y[j];
+                            if (j == i || Math.abs(dx) > reachX + halfWidth[j] || Math.abs(dy) > reachY + halfHeight[j]) {
+                                continue;
+                            }
+                            double distance = Math.sqrt(dx * dx + dy * dy);
+                            if (distance == 0) {
+                                continue;
+                            }
+                            double unitX = dx / distance;
+                            double unitY = dy / distance;
+                            double gap = glyphRadius(i, unitX, unitY) + glyphRadius(j, unitX, unitY);
+                            double magnitude = magnitude(distance, gap);
+                            sumX += unitX * magnitude;
+                            sumY += unitY * magnitude;
+                        }
+                    }
+                    for (int n = 0; n < summarisedCount; n++) {
+                        int cell = summarised[n];
+                        double dx = x[i] - centroidX[cell];
+                        double dy = y[i] - centroidY[cell];
+                        double distance = Math.sqrt(dx * dx + dy * dy);
+                        double unitX = dx / distance;
+                        double unitY = dy / distance;
+                        double gap = glyphRadius(i, unitX, unitY)
+                                + radiusAtDirection(meanHalfWidth[cell], meanHalfHeight[cell], false, unitX, unitY);
+                        double magnitude = magnitude(distance, gap) * mass[cell];
+                        sumX += unitX * magnitude;
+                        sumY += unitY * magnitude;
+                    }
+                    forceX[i] = sumX;
+                    forceY[i] = sumY;
+                }
+            }
+        }
+
+        private double magnitude(double distance, double gap) {
+            double shift = gap * (1 - temperature);
+            double currentDistance = Math.max(0.01, distance - shift);
+            double desiredDistance = nodeNodeDistance + gap - shift;
+            double ratio = desiredDistance / currentDistance;
+            return exponent == 2 ? ratio * ratio : Math.pow(ratio, exponent);
+        }
+
+        private double glyphRadius(int i, double unitX, double unitY) {
+            return radiusAtDirection(halfWidth[i], halfHeight[i], spheroid[i], unitX, unitY);
+        }
+    }
+
+    /**
+     * Repulsion between the overlapping boxes of the selected nodes, given by
+     * their nodeSize attribute. Each overlapping pair is pushed apart along
+     * the axis of least penetration, each node by half the penetration, so
+     * that the overlap would be solved in one step if the nodes were free to
+     * move. The candidate pairs are found with a spatial hash of the boxes.
+     */
+    public static class ElementOverlapRepulsion extends ImpredForce {
+
+        private final double margin;
+        private final SpatialHash hash;
+        private final Coordinates[] nodeForces;
+        private final NodeAttribute<Coordinates> forces = new NodeAttribute<>(new Coordinates(0, 0));
+        private final double[] forceX;
+        private final double[] forceY;
+
+        /**
+         * Builds the force.
+         *
+         * @param selectedNodes the nodes whose boxes should not overlap.
+         * @param margin the minimum gap between two boxes.
+         */
+        public ElementOverlapRepulsion(Collection<Node> selectedNodes, double margin) {
+            this.margin = margin;
+            this.hash = new SpatialHash(selectedNodes);
+            this.nodeForces = new Coordinates[hash.size()];
+            this.forceX = new double[hash.size()];
+            this.forceY = new double[hash.size()];
+            for (int i = 0; i < hash.size(); i++) {
+                nodeForces[i] = new Coordinates(0, 0);
+                forces.set(hash.node(i), nodeForces[i]);
+            }
+        }
+
+        @Override
+        protected NodeAttribute<Coordinates> computeForces() {
+            hash.update(mirrorGraph(), mirrorPositions(), margin);
+            Arrays.fill(forceX, 0);
+            Arrays.fill(forceY, 0);
+            for (int i = 0; i < hash.size(); i++) {
+                int count = hash.neighbours(i);
+                for (int k = 0; k < count; k++) {
+                    int j = hash.neighbour(k);
+                    double dx = hash.x(i) - hash.x(j);
+                    double dy = hash.y(i) - hash.y(j);
+                    double overlapX = hash.halfWidth(i) + hash.halfWidth(j) + margin - Math.abs(dx);
+                    double overlapY = hash.halfHeight(i) + hash.halfHeight(j) + margin - Math.abs(dy);
+                    if (overlapX <= 0 || overlapY <= 0) {
+                        continue;
+                    }
+                    if (overlapX < overlapY) {
+                        double push = (dx < 0 ? -overlapX : overlapX) / 2;
+                        forceX[i] += push;
+                        forceX[j] -= push;
+                    } else {
+                        double push = (dy < 0 ? -overlapY : overlapY) / 2;
+                        forceY[i] += push;
+                        forceY[j] -= push;
+                    }
+                }
+            }
+            for (int i = 0; i < hash.size(); i++) {
+                nodeForces[i].setX(forceX[i]);
+                nodeForces[i].setY(forceY[i]);
+            }
+            return forces;
+        }
+    }
+
+    /**
+     * Computes the distance between the centre and the border of a cuboid or
+     * spheroid glyph in the given direction, as
+     * Layout2D.nodeGlyphRadiusAtAngle.
+     */
+    private static double radiusAtDirection(double halfWidth, double halfHeight, boolean spheroid, double unitX, double unitY) {
+        if (halfWidth == 0 && halfHeight == 0) {
+            return 0;
+        }
+        if (spheroid) {
+            double radiusX = unitX * halfWidth;
+            double radiusY = unitY * halfHeight;
+            return Math.sqrt(radiusX * radiusX + radiusY * radiusY);
+        }
+        double radiusX = unitX != 0 ? halfWidth / Math.abs(unitX) : Double.POSITIVE_INFINITY;
+        double radiusY = unitY != 0 ? halfHeight / Math.abs(unitY) : Double.POSITIVE_INFINITY;
+        return Math.min(radiusX, radiusY);
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.geometry.Geom2D;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.layout.fdl.impred.ImpredPostProcessing;
+
+/**
+ * Impred post-processing steps used by the Euler diagram smoothing.
+ */
+public class SmoothingPostProcessing {
+
+    private SmoothingPostProcessing() {
+    }
+
+    /**
+     * Monitors the convergence of the smoothing. At every iteration it
+     * records the maximum and mean node displacement and the average
+     * isoperimetric quotient of the curves. When the quotient improves less
+     * than the given threshold over a window of iterations, the current
+     * iteration is completed and Converged is thrown to stop Impred. The
+     * monitor should therefore follow the post-processing steps that modify
+     * the layout.
+     * <p>
+     * The quotient is computed on the original graph, which Impred updates
+     * after the post-processing steps, and so refers to the previous
+     * iteration. When quality metrics are given, the quotient is instead
+     * taken from their last sample, which avoids rebuilding the curve
+     * polygons at every iteration.
+     */
+    public static class ConvergenceMonitor extends ImpredPostProcessing {
+
+        private final Graph graph;
+        private final QualityMetrics metrics;
+        private final int window;
+        private final double threshold;
+        private final double[] quotients;
+        private int iterations;
+        private double maxDisplacement;
+        private double meanDisplacement;
+        private double quotient = Double.NaN;
+
+        /**
+         * Builds the monitor.
+         *
+         * @param graph the smoothed graph.
+         * @param window the number of iterations over which the improvement
+         * is measured.
+         * @param threshold the minimum improvement of the average
+         * isoperimetric quotient over the window, or 0 to never stop.
+         */
+        public ConvergenceMonitor(Graph graph, int window, double threshold) {
+            this(graph, null, window, threshold);
+        }
+
+        /**
+         * Builds the monitor.
+         *
+         * @param graph the smoothed graph.
+         * @param metrics the quality metrics registered before the monitor,
+         * or null to compute the quotient on the graph.
+         * @param window the number of iterations over which the improvement
+         * is measured.
+         * @param threshold the minimum improvement of the average
+         * isoperimetric quotient over the window, or 0 to never stop.
+         */
+        public ConvergenceMonitor(Graph graph, QualityMetrics metrics, int window, double threshold) {
+            if (window < 1) {
+                throw new IllegalArgumentException("The convergence window must be positive.");
+            }
+            this.graph = graph;
+            this.metrics = metrics;
+            this.window = window;
+            this.threshold = threshold;
+            this.quotients = new double[window];
+        }
+
+        @Override
+        protected void execute() {
+            NodeAttribute<Coordinates> movements = movements();
+            double max = 0;
+            double sum = 0;
+            int count = 0;
+            for (Node node : mirrorGraph().nodes()) {
+                double displacement = Geom2D.magnitude(movements.get(node));
+                max = Math.max(max, displacement);
+                sum += displacement;
+                count++;
+            }
+            maxDisplacement = max;
+            meanDisplacement = count > 0 ? sum / count : 0;
+
+            if (threshold <= 0) {
+                iterations++;
+                return;
+            }
+
+            quotient = metrics != null ? metrics.last().averageQuotient : SmoothingTest.averageIsoperimetricQuotient(graph);
+            int slot = iterations % window;
+            boolean converged = iterations >= window && quotient - quotients[slot] < threshold;
+            quotients[slot] = quotient;
+            iterations++;
+
+            if (converged) {
+                mirrorPositions().stopBulkNotification();
+                synchronizer().updateOriginal();
+                throw new Converged(iterations);
+            }
+        }
+
+        /**
+         * Returns the number of completed iterations.
+         *
+         * @return the number of iterations.
+         */
+        public int iterations() {
+            return iterations;
+        }
+
+        /**
+         * Returns the maximum node displacement of the last iteration.
+         *
+         * @return the maximum displacement.
+         */
+        public double maxDisplacement() {
+            return maxDisplacement;
+        }
+
+        /**
+         * Returns the mean node displacement of the last iteration.
+         *
+         * @return the mean displacement.
+         */
+        public double meanDisplacement() {
+            return meanDisplacement;
+        }
+
+        /**
+         * Returns the last computed average isoperimetric quotient.
+         *
+         * @return the quotient, or NaN if the monitor never stops.
+         */
+        public double quotient() {
+            return quotient;
+        }
+    }
+
+    /**
+     * Thrown by the convergence monitor to stop Impred before the requested
+     * number of iterations.
+     */
+    public static class Converged extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public final int iterations;
+
+        public Converged(int iterations) {
+            super("Smoothing converged after " + iterations + " iterations", null, false, false);
+            this.iterations = iterations;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A smoothing task that can be cancelled, paused and resumed while running.
+ * The smoothing checks the state of its run between iterations, so it stops
+ * within one iteration after being cancelled or after its deadline expires,
+ * and blocks between iterations while paused. The run can be executed by a
+ * dedicated thread or by an executor. Once the run completes, the task and
+ * the graph it references are released.
+ *
+ * @param <T> the result type.
+ */
+public class SmoothingRun<T> extends FutureTask<T> {
+
+    private static final ThreadLocal<SmoothingRun<?>> current = new ThreadLocal<>();
+
+    private final long timeoutNanos;
+    private volatile long deadline;
+    private boolean paused;
+
+    /**
+     * Constructs a run of a task that computes a result.
+     *
+     * @param task the task.
+     * @param timeout the maximum running time, or 0 for no limit.
+     * @param unit the time unit of the timeout.
+     */
+    public SmoothingRun(Callable<T> task, long timeout, TimeUnit unit) {
+        super(task);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Constructs a run of a task without result, such as a smoothing test
+     * reporting to its comment area.
+     *
+     * @param task the task.
+     * @param timeout the maximum running time, or 0 for no limit.
+     * @param unit the time unit of the timeout.
+     */
+    public SmoothingRun(Runnable task, long timeout, TimeUnit unit) {
+        super(task, null);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Creates a run that measures a smoothing test.
+     *
+     * @param test the test, whose graph and parameters must have already been
+     * set, e.g. by calling reset.
+     * @param timeout the maximum running time, or 0 for no limit.
+     * @param unit the time unit of the timeout.
+     * @return the run.
+     */
+    public static SmoothingRun<SmoothingTest.Statistics> measure(final SmoothingTest test, long timeout, TimeUnit unit) {
+        return new SmoothingRun<>(new Callable<SmoothingTest.Statistics>() {
+
+            @Override
+            public SmoothingTest.Statistics call() {
+                return test.measure();
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public void run() {
+        deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        current.set(this);
+        try {
+            super.run();
+        } finally {
+            current.remove();
+        }
+    }
+
+    /**
+     * Cancels the run and wakes it up if paused.
+     *
+     * @param mayInterruptIfRunning whether the running thread should also be
+     * interrupted.
+     * @return false if the run could not be cancelled, typically because it
+     * has already completed.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        synchronized (this) {
+            notifyAll();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Pauses the run at the end of the current iteration.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Resumes a paused run.
+     */
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Checks whether the run is paused.
+     *
+     * @return true if paused.
+     */
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Checks the state of the run executed by the current thread, if any. The
+     * method blocks while the run is paused.
+     *
+     * @throws CancellationException if the run has been cancelled, its
+     * deadline expired, or the current thread has been interrupted.
+     */
+    public static void checkpoint() {
+        SmoothingRun<?> run = current.get();
+        if (run != null) {
+            run.check();
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Smoothing interrupted");
+        }
+    }
+
+    private void check() {
+        synchronized (this) {
+            while (paused && !isCancelled()) {
+                try {
+                    wait();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+            cancel(false);
+        }
+        if (isCancelled()) {
+            throw new CancellationException("Smoothing cancelled");
+        }
+    }
+}
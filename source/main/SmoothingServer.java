@@ -0,0 +1,566 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute;
+import ocotillo.graph.serialization.oco.OcoSaver;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Local HTTP service that smooths the diagrams posted to it, so that the
+ * virtual machine stays warm across requests. A diagram is posted as oco text
+ * to /smooth, with the test parameters in the query string, and the smoothed
+ * element positions and region polygons are streamed back as JSON, or the
+ * smoothed graph as oco text. The smoothings run on a fixed number of threads
+ * with a bounded queue, and the requests that find the queue full are
+ * rejected immediately with status 503, so that the latency of the accepted
+ * ones stays predictable. A request is admitted before its body is read, and
+ * bodies larger than the limit are rejected with status 413, so that the
+ * memory used by the server is bounded as well.
+ */
+public class SmoothingServer {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final String usage = "EulerSmooth serve [options]";
+    private static final String usageHeader = "Post the oco text of a diagram to /smooth, with the optional query "
+            + "parameters name, distance, mov, ind, sep, iterations, factor, duplicateShared and format (json or oco).";
+
+    private final SmoothingExecutor executor;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final Semaphore admissions;
+    private final long timeout;
+    private final long maxBodySize;
+
+    /**
+     * Constructs a server listening on the loopback interface.
+     *
+     * @param port the port, or 0 for any free port.
+     * @param threads the number of diagrams smoothed in parallel.
+     * @param queueCapacity the number of diagrams waiting for a thread
+     * before new requests are rejected.
+     * @param timeout the maximum smoothing time in seconds, or 0 for no
+     * limit.
+     * @param maxBodySize the maximum size in bytes of a posted diagram.
+     * @throws IOException if the port cannot be bound.
+     */
+    public SmoothingServer(int port, int threads, int queueCapacity, long timeout, long maxBodySize) throws IOException {
+        this.executor = new SmoothingExecutor(threads, queueCapacity);
+        this.admissions = new Semaphore(threads + queueCapacity);
+        this.timeout = timeout;
+        this.maxBodySize = maxBodySize;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.handlers = Executors.newFixedThreadPool(2 * (threads + queueCapacity) + 1);
+        server.setExecutor(handlers);
+        server.createContext("/smooth", new SmoothHandler());
+        server.createContext("/health", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    sendText(exchange, 200, "ok");
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and cancels the running smoothings.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.cancelAll();
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the port.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Smooths a diagram a few times, so that the code of the smoothing is
+     * compiled before the first request.
+     *
+     * @param file the oco file of the diagram.
+     * @param rounds the number of smoothings.
+     */
+    public static void warmUp(File file, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            SmoothingTest test = new SmoothingTest.OcoFile(file, false);
+            test.reset();
+            test.measure();
+        }
+    }
+
+    /**
+     * Handles the smoothing requests.
+     */
+    private class SmoothHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    sendText(exchange, 405, "Post the oco text of the diagram.");
+                    return;
+                }
+
+                if (!admissions.tryAcquire()) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendText(exchange, 503, "Too many diagrams are being smoothed, retry later.");
+                    return;
+                }
+                try {
+                    smooth(exchange);
+                } finally {
+                    admissions.release();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Reads, smooths and returns the diagram of an admitted request.
+         */
+        private void smooth(HttpExchange exchange) throws IOException {
+            final SmoothingTest test;
+            boolean ocoOutput;
+            try {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                String format = value(parameters, "format", "json");
+                if (!format.equals("json") && !format.equals("oco")) {
+                    throw new IllegalArgumentException("Invalid format " + format + ", expected json or oco.");
+                }
+                ocoOutput = format.equals("oco");
+                test = newTest(parameters, readLines(exchange, maxBodySize));
+            } catch (IllegalArgumentException exception) {
+                sendText(exchange, 400, exception.getMessage());
+                return;
+            } catch (BodyTooLargeException exception) {
+                sendText(exchange, 413, "The diagram exceeds the limit of " + maxBodySize + " bytes.");
+                return;
+            }
+
+            SmoothingRun<SmoothingTest.Statistics> run = executor.trySubmit(new Callable<SmoothingTest.Statistics>() {
+
+                @Override
+                public SmoothingTest.Statistics call() {
+                    try {
+                        test.reset();
+                    } catch (RuntimeException exception) {
+                        throw new IllegalArgumentException("Invalid oco text: " + exception.getMessage(), exception);
+                    }
+                    return test.measure();
+                }
+            }, timeout, TimeUnit.SECONDS);
+            if (run == null) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Too many diagrams are being smoothed, retry later.");
+                return;
+            }
+
+            SmoothingTest.Statistics statistics;
+            try {
+                statistics = run.get();
+            } catch (CancellationException exception) {
+                sendText(exchange, 504, "The smoothing exceeded the time limit of " + timeout + " seconds.");
+                return;
+            } catch (ExecutionException exception) {
+                Throwable cause = exception.getCause();
+                if (cause instanceof IllegalArgumentException) {
+                    sendText(exchange, 400, cause.getMessage());
+                } else {
+                    sendText(exchange, 500, "The smoothing failed: " + cause);
+                }
+                return;
+            } catch (InterruptedException exception) {
+                run.cancel(true);
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (ocoOutput) {
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, 0);
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), utf8))) {
+                    for (String line : new OcoSaver().write(test.graph)) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, 0);
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), utf8))) {
+                    writeJson(test.graph, statistics, writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the test of a request.
+     *
+     * @param parameters the query parameters.
+     * @param lines the oco text.
+     * @return the test, whose graph is read when reset.
+     */
+    private static SmoothingTest newTest(Map<String, String> parameters, List<String> lines) {
+        for (String name : parameters.keySet()) {
+            if (!name.matches("name|format|distance|mov|ind|sep|iterations|factor|duplicateShared")) {
+                throw new IllegalArgumentException("Unknown parameter " + name + ".");
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("The request does not contain a diagram.");
+        }
+        SmoothingTest test = new SmoothingTest.OcoText(value(parameters, "name", "diagram"), lines,
+                CommandLineOptions.parseBoolean(value(parameters, "duplicateShared", "false")));
+        test.distance = CommandLineOptions.parseDouble(value(parameters, "distance", Double.toString(test.distance)));
+        test.mov = CommandLineOptions.parseBoolean(value(parameters, "mov", Boolean.toString(test.mov)));
+        test.ind = CommandLineOptions.parseBoolean(value(parameters, "ind", Boolean.toString(test.ind)));
+        test.sep = CommandLineOptions.parseBoolean(value(parameters, "sep", Boolean.toString(test.sep)));
+        test.iterations = CommandLineOptions.parseInteger(value(parameters, "iterations", Integer.toString(test.iterations)));
+        test.factor = CommandLineOptions.parseDouble(value(parameters, "factor", Double.toString(test.factor)));
+        if (test.distance <= 0 || test.iterations < 0 || test.factor <= 0) {
+            throw new IllegalArgumentException("The distance and factor must be positive, and the iterations not negative.");
+        }
+        return test;
+    }
+
+    /**
+     * Writes the result of a smoothing in JSON format. The region polygons
+     * are given in the order of the curves.
+     *
+     * @param graph the smoothed graph.
+     * @param statistics the statistics of the smoothing.
+     * @param output the output.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void writeJson(Graph graph, SmoothingTest.Statistics statistics, Writer output) throws IOException {
+        output.write("{\n  \"name\": " + jsonString(statistics.name));
+        output.write(",\n  \"iterations\": " + statistics.iterations);
+        output.write(",\n  \"seconds\": " + jsonNumber(statistics.seconds));
+        output.write(",\n  \"initialQuotient\": " + jsonNumber(statistics.initialQuotient));
+        output.write(",\n  \"finalQuotient\": " + jsonNumber(statistics.finalQuotient));
+        output.write(",\n  \"topologyViolations\": " + statistics.topology.violationCount());
+
+        NodeAttribute<Coordinates> positions = graph.nodeAttribute(StdAttribute.nodePosition);
+        NodeAttribute<String> labels = graph.hasNodeAttribute(StdAttribute.label)
+                ? graph.<String>nodeAttribute(StdAttribute.label) : null;
+        output.write(",\n  \"elements\": [");
+        String separator = "\n    ";
+        for (Node node : graph.nodes()) {
+            if (graph.degree(node) != 0) {
+                continue;
+            }
+            Coordinates position = positions.get(node);
+            output.write(separator + "{\"id\": " + jsonString(node.id()));
+            if (labels != null) {
+                output.write(", \"label\": " + jsonString(labels.get(node)));
+            }
+            output.write(", \"x\": " + jsonNumber(position.x()) + ", \"y\": " + jsonNumber(position.y()) + "}");
+            separator = ",\n    ";
+        }
+        output.write("\n  ]");
+
+        CurveTopology topology = CurveTopology.of(graph);
+        output.write(",\n  \"regions\": [");
+        separator = "\n    ";
+        for (int curve = 0; curve < topology.curveCount(); curve++) {
+            output.write(separator + "[");
+            String pointSeparator = "";
+            for (Coordinates point : topology.polygon(curve)) {
+                output.write(pointSeparator + "[" + jsonNumber(point.x()) + ", " + jsonNumber(point.y()) + "]");
+                pointSeparator = ", ";
+            }
+            output.write("]");
+            separator = ",\n    ";
+        }
+        output.write("\n  ]\n}\n");
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder("\"");
+        for (char character : value.toCharArray()) {
+            if (character == '"' || character == '\\') {
+                builder.append('\\').append(character);
+            } else if (character < 0x20) {
+                builder.append(String.format("\\u%04x", (int) character));
+            } else {
+                builder.append(character);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    private static List<String> readLines(HttpExchange exchange, long maxBodySize) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > maxBodySize) {
+                    throw new BodyTooLargeException();
+                }
+            } catch (NumberFormatException exception) {
+                throw new IllegalArgumentException("Invalid Content-Length " + contentLength + ".");
+            }
+        }
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new LimitedInputStream(exchange.getRequestBody(), maxBodySize), utf8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Thrown when a request body exceeds the size limit.
+     */
+    private static class BodyTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Input stream that fails once more than a given number of bytes is read.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        public LimitedInputStream(InputStream input, long limit) {
+            super(input);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int next = super.read();
+            if (next >= 0 && --remaining < 0) {
+                throw new BodyTooLargeException();
+            }
+            return next;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                remaining -= count;
+                if (remaining < 0) {
+                    throw new BodyTooLargeException();
+                }
+            }
+            return count;
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = (text + "\n").getBytes(utf8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("Missing value of parameter " + pair + ".");
+            }
+            try {
+                parameters.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"), URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+            } catch (UnsupportedEncodingException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+        return parameters;
+    }
+
+    private static String value(Map<String, String> parameters, String name, String defaultValue) {
+        String value = parameters.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Parses the command line arguments and runs the server until the virtual
+     * machine is terminated.
+     *
+     * @param args the command line arguments.
+     */
+    public static void run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        Options options = options();
+        CommandLine line;
+        try {
+            line = new GnuParser().parse(options, args);
+        } catch (ParseException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, usageHeader, options);
+            return;
+        }
+
+        if (line.hasOption("help")) {
+            CommandLineOptions.printHelp(usage, usageHeader, options);
+            return;
+        }
+
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = threads;
+        long timeout = 0;
+        long maxBodySize = 16L << 20;
+        File warmup = null;
+        try {
+            if (line.getArgs().length != 0) {
+                throw new IllegalArgumentException("Unexpected arguments, the diagrams are posted to the server.");
+            }
+            if (line.hasOption("port")) {
+                port = CommandLineOptions.parseInteger(line.getOptionValue("port"));
+            }
+            if (line.hasOption("threads")) {
+                threads = CommandLineOptions.parseInteger(line.getOptionValue("threads"));
+                if (threads < 1) {
+                    throw new IllegalArgumentException("The number of threads must be positive.");
+                }
+                queueCapacity = threads;
+            }
+            if (line.hasOption("queue")) {
+                queueCapacity = CommandLineOptions.parseInteger(line.getOptionValue("queue"));
+                if (queueCapacity < 0) {
+                    throw new IllegalArgumentException("The queue capacity cannot be negative.");
+                }
+            }
+            if (line.hasOption("timeout")) {
+                timeout = CommandLineOptions.parseInteger(line.getOptionValue("timeout"));
+                if (timeout < 0) {
+                    throw new IllegalArgumentException("The timeout cannot be negative.");
+                }
+            }
+            if (line.hasOption("max-body")) {
+                maxBodySize = (long) CommandLineOptions.parseInteger(line.getOptionValue("max-body")) << 20;
+                if (maxBodySize <= 0) {
+                    throw new IllegalArgumentException("The maximum body size must be positive.");
+                }
+            }
+            if (line.hasOption("warmup")) {
+                warmup = new File(line.getOptionValue("warmup"));
+                if (!warmup.isFile()) {
+                    throw new IllegalArgumentException("Cannot read file " + warmup.getPath() + ".");
+                }
+            }
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            CommandLineOptions.printHelp(usage, usageHeader, options);
+            return;
+        }
+
+        if (warmup != null) {
+            warmUp(warmup, 3);
+        }
+        final SmoothingServer server;
+        try {
+            server = new SmoothingServer(port, threads, queueCapacity, timeout, maxBodySize);
+        } catch (IOException exception) {
+            System.err.println("Cannot start the server: " + exception.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        server.start();
+        System.out.println("Smoothing server listening on http://127.0.0.1:" + server.port() + "/smooth");
+    }
+
+    private static Options options() {
+        Options options = new Options();
+        options.addOption("h", "help", false, "print this message");
+        options.addOption(CommandLineOptions.option("p", "port", "number", "port on the loopback interface (default: 8080)"));
+        options.addOption(CommandLineOptions.option("t", "threads", "number", "number of diagrams smoothed in parallel (default: number of processors)"));
+        options.addOption(CommandLineOptions.option(null, "queue", "number", "number of diagrams waiting for a thread before new ones are rejected (default: number of threads)"));
+        options.addOption(CommandLineOptions.option(null, "timeout", "seconds", "maximum smoothing time of each diagram"));
+        options.addOption(CommandLineOptions.option(null, "max-body", "megabytes", "maximum size of a posted diagram (default: 16)"));
+        options.addOption(CommandLineOptions.option("w", "warmup", "file", "oco file smoothed at startup to warm up the virtual machine"));
+        return options;
+    }
+}
@@ -26,7 +26,6 @@ import ocotillo.graph.Node;
 import ocotillo.graph.NodeAttribute;
 import ocotillo.graph.StdAttribute;
 import ocotillo.graph.StdAttribute.ControlPoints;
-import ocotillo.graph.layout.LayoutXD;
 import ocotillo.graph.layout.fdl.impred.Impred;
 import ocotillo.graph.layout.fdl.impred.ImpredConstraint;
 import ocotillo.graph.layout.fdl.impred.ImpredForce;
@@ -36,26 +35,52 @@ import ocotillo.graph.serialization.oco.OcoSaver;
 import java.awt.Color;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
 import javax.swing.JTextArea;
 
 public abstract class SmoothingTest implements Runnable {
 
     public Graph graph;
-    public JTextArea comment = new JTextArea();
 
     public double distance = 10.0;
     public boolean mov = true;
     public boolean ind = true;
     public boolean sep = false;
     public int iterations = 100;
+    public double factor = 1.0;
+    public boolean packedCurves = true;
+    public boolean packedRepulsion = false;
+    public double openingAngle = 0.0;
+    public boolean elementOverlap = false;
+    public double convergenceThreshold = 0.0;
+    public int convergenceWindow = 50;
+    public int forceThreads = 1;
+    public boolean profiling = false;
+    public int levels = 1;
+    public double levelRatio = 2.0;
+    public int coarseIterations = 50;
+    public boolean trackQuality = false;
     public boolean fullOptions = true;
+    public LivePreview preview;
+    public DeltaStream deltaStream;
+
+    private RegionFiller regionFiller;
+    private PreviewPublisher previewPublisher;
+    private SmoothingPostProcessing.ConvergenceMonitor convergenceMonitor;
+    private ForkJoinPool forcePool;
+    private ImpredProfiler profiler;
+    private QualityMetrics qualityMetrics;
+    private CurveTopology topology;
+    private int coarseLevelIterations;
+    private JTextArea comment;
 
     public abstract String getName();
 
@@ -74,29 +99,11 @@ public abstract class SmoothingTest implements Runnable {
     public static final Color[] defaultColors = new Color[]{red, yellow, green, teal, blue, purple};
 
     private static List<List<Edge>> extractCurves(Graph graph) {
-        List<List<Edge>> curves = new ArrayList<>();
-        if (graph.subGraphs().isEmpty()) {
-            curves.add(extractCurve(graph));
-        }
-        for (Graph subgraph : graph.subGraphs()) {
-            curves.add(extractCurve(subgraph));
-        }
-        return curves;
+        return CurveTopology.of(graph).curves();
     }
 
-    private static List<Edge> extractCurve(Graph graph) {
-        List<Edge> curve = new ArrayList<>();
-        Edge currentEdge = graph.edges().iterator().next();
-        Node startingNode = currentEdge.source();
-        Node currentNode = startingNode;
-        curve.add(currentEdge);
-        while (currentEdge.otherEnd(currentNode) != startingNode) {
-            currentNode = currentEdge.otherEnd(currentNode);
-            List<Edge> inOutEdges = new ArrayList<>(graph.inOutEdges(currentNode));
-            currentEdge = inOutEdges.get(0) != currentEdge ? inOutEdges.get(0) : inOutEdges.get(1);
-            curve.add(currentEdge);
-        }
-        return curve;
+    private List<List<Edge>> curves() {
+        return topology != null ? topology.curves() : extractCurves(graph);
     }
 
     private static List<Node> extractElements(Graph graph) {
@@ -124,10 +131,15 @@ public abstract class SmoothingTest implements Runnable {
     }
 
     private static void duplicateSharedCurves(Graph graph) {
+        if (graph.subGraphs().isEmpty()) {
+            return;
+        }
         Set<Node> originalCurveNodes = new HashSet<>();
         Set<Edge> originalCurveEdges = new HashSet<>();
-        for (Graph subgraph : graph.subGraphs()) {
-            List<Edge> curve = extractCurve(subgraph);
+        CurveTopology topology = CurveTopology.of(graph);
+        for (int i = 0; i < topology.curveCount(); i++) {
+            Graph subgraph = topology.curveGraph(i);
+            List<Edge> curve = topology.curve(i);
             Map<Node, Node> nodeMap = new HashMap<>();
             for (Edge edge : curve) {
                 if (!nodeMap.containsKey(edge.source())) {
@@ -168,6 +180,31 @@ public abstract class SmoothingTest implements Runnable {
         return clone;
     }
 
+    /**
+     * Loads a test graph from the graph cache. The shared curves duplication
+     * and the curve filling are performed only once for each file and set of
+     * parameters.
+     *
+     * @param file the oco file.
+     * @param duplicateShared whether the curves shared by more sets should be
+     * duplicated.
+     * @param boundaryWidth the width of the curve boundaries.
+     * @return a new copy of the prepared graph.
+     */
+    protected static Graph loadGraph(File file, final boolean duplicateShared, final double boundaryWidth) {
+        String variant = "duplicateShared=" + duplicateShared + ",boundaryWidth=" + boundaryWidth;
+        return GraphCache.load(file, variant, new GraphCache.Preparation() {
+
+            @Override
+            public void prepare(Graph graph) {
+                if (duplicateShared) {
+                    duplicateSharedCurves(graph);
+                }
+                fillCurves(graph, boundaryWidth);
+            }
+        });
+    }
+
     private static void fillCurves(Graph graph, double boundaryWidth) {
         NodeAttribute<Color> nodeColor = graph.<Color>nodeAttribute(StdAttribute.color);
         for (Node node : graph.nodes()) {
@@ -177,138 +214,718 @@ public abstract class SmoothingTest implements Runnable {
         }
         graph.<Color>edgeAttribute(StdAttribute.color).setDefault(new Color(0, 0, 0, 0));
 
-        int clusterColorIdx = 0;
-        if (graph.subGraphs().isEmpty()) {
-            fillCurve(graph, yellow, boundaryWidth);
+        CurveTopology topology = CurveTopology.of(graph);
+        for (int i = 0; i < topology.curveCount(); i++) {
+            Color fillColor = regionColor(topology.curveGraph(i), i);
+            fillCurve(topology.curveGraph(i), topology.polygon(i), fillColor, boundaryWidth, boundaryColor(fillColor));
         }
-        for (Graph subgraph : graph.subGraphs()) {
-            if (subgraph.hasGraphAttribute(StdAttribute.color)) {
-                fillCurve(subgraph, subgraph.<Color>graphAttribute(StdAttribute.color).get(), boundaryWidth);
-            } else {
-                fillCurve(subgraph, defaultColors[clusterColorIdx], boundaryWidth);
-            }
-            clusterColorIdx = (clusterColorIdx + 1) % defaultColors.length;
+    }
+
+    private static Color regionColor(Graph region, int index) {
+        if (region.parentGraph() == null) {
+            return yellow;
+        } else if (region.hasGraphAttribute(StdAttribute.color)) {
+            return region.<Color>graphAttribute(StdAttribute.color).get();
+        } else {
+            return defaultColors[index % defaultColors.length];
         }
     }
 
-    private static void fillCurve(Graph graph, Color fillColor, double boundaryWidth) {
-        Polygon polygon = extractPolygon(graph);
+    private static Color boundaryColor(Color fillColor) {
+        double factor = 0.7;
+        return new Color((int) (fillColor.getRed() * factor), (int) (fillColor.getGreen() * factor), (int) (fillColor.getBlue() * factor), fillColor.getAlpha());
+    }
+
+    private static void fillCurve(Graph graph, Polygon polygon, Color fillColor, double boundaryWidth, Color boundaryColor) {
         GraphAttribute<String> attribute;
         if (graph.hasLocalGraphAttribute(StdAttribute.graphics)) {
             attribute = graph.graphAttribute(StdAttribute.graphics);
         } else {
             attribute = graph.newLocalGraphAttribute(StdAttribute.graphics, "");
         }
-        double factor = 0.7;
-        Color boundaryColor = new Color((int) (fillColor.getRed() * factor), (int) (fillColor.getGreen() * factor), (int) (fillColor.getBlue() * factor), fillColor.getAlpha());
         attribute.set((new SvgElement.SvgPolygon("", polygon, fillColor, boundaryWidth, boundaryColor)).toString());
     }
 
     private static List<Polygon> extractPolygons(Graph graph) {
+        CurveTopology topology = CurveTopology.of(graph);
         List<Polygon> polygons = new ArrayList<>();
-        if (graph.subGraphs().isEmpty()) {
-            polygons.add(extractPolygon(graph));
-        }
-        for (Graph subgraph : graph.subGraphs()) {
-            polygons.add(extractPolygon(subgraph));
+        for (int i = 0; i < topology.curveCount(); i++) {
+            polygons.add(topology.polygon(i));
         }
         return polygons;
     }
 
-    private static Polygon extractPolygon(Graph graph) {
-        List<Edge> curve = extractCurve(graph);
-        Polygon polygon = new Polygon();
-        Node currentNode = curve.get(0).source();
-        for (Edge edge : curve) {
-            if (currentNode == edge.source()) {
-                polygon.addAll(LayoutXD.edgePoints(edge, graph));
-            } else {
-                List<Coordinates> edgePoints = LayoutXD.edgePoints(edge, graph);
-                Collections.reverse(edgePoints);
-                polygon.addAll(edgePoints);
-            }
-            currentNode = edge.otherEnd(currentNode);
-        }
-        return polygon;
-    }
-
-    private static Impred getImpred(Graph graph, double optimalDistance, boolean movableElements, boolean independentBoundaries, boolean separateBoundaries) {
-        return getImpred(graph, optimalDistance, movableElements, independentBoundaries, separateBoundaries, 1.0);
-    }
-
-    private static Impred getImpred(Graph graph, double optimalDistance, boolean movableElements, boolean independentBoundaries, boolean separateBoundaries, double factor) {
+    private Impred getImpred(Graph graph, double optimalDistance, boolean movableElements, boolean independentBoundaries, boolean separateBoundaries, double factor) {
         Impred.ImpredBuilder builder = new Impred.ImpredBuilder(graph)
-                .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
-                .withForce(new ImpredForce.SelectedEdgeNodeRepulsion(optimalDistance, graph.edges(), extractElements(graph)))
-                .withForce(new ImpredForce.EdgeAttraction(optimalDistance * 0.7))
-                .withConstraint(new ImpredConstraint.DecreasingMaxMovement(optimalDistance))
-                .withConstraint(new ImpredConstraint.MovementAcceleration(optimalDistance))
-                .withConstraint(new ImpredConstraint.SurroundingEdges(extractSurroundingEdges(graph, independentBoundaries)))
-                .withPostProcessing(new ImpredPostProcessing.FlexibleEdges(graph.edges(), optimalDistance * 1.45 * factor, optimalDistance * 1.5 * factor))
-                .withPostProcessing(new RegionFiller(graph, optimalDistance / 10));
+                .withForce(profiled(curveSmoothing()))
+                .withForce(profiled(edgeNodeRepulsion(optimalDistance)))
+                .withForce(profiled(new ImpredForce.EdgeAttraction(optimalDistance * 0.7)))
+                .withConstraint(profiled(new ImpredConstraint.DecreasingMaxMovement(optimalDistance)))
+                .withConstraint(profiled(new ImpredConstraint.MovementAcceleration(optimalDistance)))
+                .withConstraint(profiled(new SmoothingConstraint.LocalSurroundingEdges(extractSurroundingEdges(graph, independentBoundaries))))
+                .withPostProcessing(profiled(new ImpredPostProcessing.FlexibleEdges(graph.edges(), optimalDistance * 1.45 * factor, optimalDistance * 1.5 * factor)));
+        if (qualityMetrics != null) {
+            builder.withPostProcessing(profiled(qualityMetrics));
+        }
+        if (deltaStream != null) {
+            builder.withPostProcessing(profiled(deltaStream.observer(graph)));
+        }
+        builder.withPostProcessing(profiled(preview(optimalDistance / 10)))
+                .withPostProcessing(profiled(convergenceMonitor(qualityMetrics)))
+                .withPostProcessing(profiled(new RunCheck()));
 
         if (movableElements) {
-            builder.withForce(new ImpredForce.SelectedNodeNodeRepulsion(optimalDistance, extractElements(graph)));
+            builder.withForce(profiled(nodeNodeRepulsion(optimalDistance)));
+            if (elementOverlap) {
+                builder.withForce(profiled(new SmoothingForce.ElementOverlapRepulsion(extractElements(graph), optimalDistance / 4)))
+                        .withConstraint(profiled(new SmoothingConstraint.ElementOverlap(extractElements(graph))));
+            }
         } else {
-            builder.withConstraint(new ImpredConstraint.PinnedNodes(extractElements(graph)));
+            builder.withConstraint(profiled(new ImpredConstraint.PinnedNodes(extractElements(graph))));
         }
 
         if (separateBoundaries) {
-            builder.withForce(new ImpredForce.EdgeNodeRepulsion(optimalDistance / 15));
+            builder.withForce(profiled(new ImpredForce.EdgeNodeRepulsion(optimalDistance / 15)));
         }
 
         return builder.build();
     }
 
+    /**
+     * Wraps a force in the profiler of the current run, if profiling.
+     *
+     * @param force the force.
+     * @return the force to register.
+     */
+    protected ImpredForce profiled(ImpredForce force) {
+        return profiler != null ? profiler.force(force) : force;
+    }
+
+    /**
+     * Wraps a constraint in the profiler of the current run, if profiling.
+     *
+     * @param constraint the constraint.
+     * @return the constraint to register.
+     */
+    protected ImpredConstraint profiled(ImpredConstraint constraint) {
+        return profiler != null ? profiler.constraint(constraint) : constraint;
+    }
+
+    /**
+     * Wraps a post-processing step in the profiler of the current run, if
+     * profiling.
+     *
+     * @param postProcessing the post-processing step.
+     * @return the post-processing step to register.
+     */
+    protected ImpredPostProcessing profiled(ImpredPostProcessing postProcessing) {
+        return profiler != null ? profiler.postProcessing(postProcessing) : postProcessing;
+    }
+
+    /**
+     * Returns the profiler of the last run.
+     *
+     * @return the profiler, or null if the last run was not profiled.
+     */
+    public ImpredProfiler profiler() {
+        return profiler;
+    }
+
+    /**
+     * Creates the curve smoothing force for the test graph, computed either on
+     * packed coordinate arrays or with the standard Impred force.
+     *
+     * @return the curve smoothing force.
+     */
+    protected ImpredForce curveSmoothing() {
+        if (packedCurves) {
+            return new SmoothingForce.PackedCurveSmoothing(curves(), forcePool());
+        }
+        return new ImpredForce.CurveSmoothing(curves());
+    }
+
+    /**
+     * Creates the repulsion between the curves and the set elements, which is
+     * evaluated in parallel when more force threads are requested.
+     *
+     * @param optimalDistance the desired edge-node distance.
+     * @return the edge-node repulsion force.
+     */
+    protected ImpredForce edgeNodeRepulsion(double optimalDistance) {
+        if (forcePool() != null) {
+            return new SmoothingForce.ParallelEdgeNodeRepulsion(optimalDistance, graph.edges(), extractElements(graph), forcePool());
+        }
+        return new SmoothingForce.GridEdgeNodeRepulsion(optimalDistance, graph.edges(), extractElements(graph));
+    }
+
+    /**
+     * Creates the repulsion between the set elements. A positive opening
+     * angle selects the Barnes-Hut approximation, otherwise the forces are
+     * computed exactly, either on packed coordinate arrays or with the
+     * standard Impred force.
+     *
+     * @param optimalDistance the desired node-node distance.
+     * @return the node-node repulsion force.
+     */
+    protected ImpredForce nodeNodeRepulsion(double optimalDistance) {
+        if (openingAngle > 0) {
+            return new SmoothingForce.BarnesHutNodeRepulsion(optimalDistance, extractElements(graph), openingAngle, forcePool());
+        }
+        if (packedRepulsion) {
+            return new SmoothingForce.PackedNodeNodeRepulsion(optimalDistance, extractElements(graph));
+        }
+        return new ImpredForce.SelectedNodeNodeRepulsion(optimalDistance, extractElements(graph));
+    }
+
+    /**
+     * Returns the pool used to evaluate the forces in parallel. The pool is
+     * created when the forces are built and shut down at the end of the run.
+     *
+     * @return the pool, or null if the forces are evaluated sequentially.
+     */
+    protected ForkJoinPool forcePool() {
+        if (forceThreads <= 1) {
+            return null;
+        }
+        if (forcePool == null) {
+            forcePool = new ForkJoinPool(forceThreads);
+        }
+        return forcePool;
+    }
+
+    /**
+     * Runs the smoothing. With more than one level, the graph is first
+     * smoothed at coarser resolutions, where the optimal distance is
+     * multiplied by the level ratio at each level, and the curves are refined
+     * before moving to the next finer level. Each level starts from the layout
+     * produced by the previous one.
+     */
     public void mainRun() {
-        Impred impred = getImpred(graph, distance, mov, ind, sep);
-        impred.iterate(iterations);
+        profiler = profiling ? new ImpredProfiler() : null;
+        topology = CurveTopology.of(graph);
+        try {
+            qualityMetrics = trackQuality || convergenceThreshold > 0 ? new QualityMetrics(topology, extractElements(graph), distance, distance) : null;
+            coarseLevelIterations = 0;
+            for (int level = levels - 1; level > 0; level--) {
+                double levelDistance = distance * Math.pow(levelRatio, level);
+                iterate(getImpred(graph, levelDistance, mov, ind, sep, factor), coarseIterations);
+                coarseLevelIterations += convergenceMonitor.iterations();
+                refineCurves(graph, levelDistance / levelRatio * 1.5 * factor);
+            }
+            Impred impred = getImpred(graph, distance, mov, ind, sep, factor);
+            iterate(impred);
+        } finally {
+            topology = null;
+        }
+    }
+
+    /**
+     * Subdivides the edge segments longer than the given length, so that the
+     * curves smoothed at a coarse level have enough bends for the next level.
+     *
+     * @param graph the graph.
+     * @param maxSegmentLength the maximum length of a segment.
+     */
+    private static void refineCurves(Graph graph, double maxSegmentLength) {
+        NodeAttribute<Coordinates> positions = graph.nodeAttribute(StdAttribute.nodePosition);
+        EdgeAttribute<ControlPoints> edgePoints = graph.edgeAttribute(StdAttribute.edgePoints);
+        for (Edge edge : graph.edges()) {
+            ControlPoints bends = edgePoints.get(edge);
+            ControlPoints refined = new ControlPoints();
+            Coordinates previous = positions.get(edge.source());
+            for (int i = 0; i <= bends.size(); i++) {
+                Coordinates next = i < bends.size() ? bends.get(i) : positions.get(edge.target());
+                int pieces = (int) Math.ceil(Geom2D.magnitude(next.minus(previous)) / maxSegmentLength);
+                for (int j = 1; j < pieces; j++) {
+                    refined.add(previous.plus(next.minus(previous).timesIP((double) j / pieces)));
+                }
+                if (i < bends.size()) {
+                    refined.add(new Coordinates(next));
+                }
+                previous = next;
+            }
+            if (refined.size() != bends.size()) {
+                edgePoints.set(edge, refined);
+            }
+        }
     }
 
-    private static class RegionFiller extends ImpredPostProcessing {
+    /**
+     * Runs the given Impred instance for the test iterations, stopping earlier
+     * if the convergence monitor detects that the smoothing has converged.
+     *
+     * @param impred the Impred instance.
+     */
+    protected void iterate(Impred impred) {
+        iterate(impred, iterations);
+    }
+
+    /**
+     * Runs the given Impred instance for the given number of iterations,
+     * stopping earlier if the convergence monitor detects that the smoothing
+     * has converged.
+     *
+     * @param impred the Impred instance.
+     * @param count the number of iterations.
+     */
+    protected void iterate(Impred impred, int count) {
+        if (profiler != null) {
+            profiler.start();
+        }
+        try {
+            impred.iterate(count);
+        } catch (SmoothingPostProcessing.Converged converged) {
+            return;
+        } finally {
+            if (profiler != null) {
+                profiler.stop();
+            }
+            if (forcePool != null) {
+                forcePool.shutdown();
+                forcePool = null;
+            }
+        }
+    }
+
+    /**
+     * Creates the convergence monitor of the test graph. The monitor never
+     * stops the smoothing unless a positive convergence threshold is set.
+     *
+     * @return the convergence monitor.
+     */
+    protected ImpredPostProcessing convergenceMonitor() {
+        return convergenceMonitor(null);
+    }
+
+    private ImpredPostProcessing convergenceMonitor(QualityMetrics metrics) {
+        convergenceMonitor = new SmoothingPostProcessing.ConvergenceMonitor(graph, metrics, convergenceWindow, convergenceThreshold);
+        return convergenceMonitor;
+    }
+
+    /**
+     * Returns the quality metrics recorded during the last run.
+     *
+     * @return the metrics, or null if the quality was not tracked.
+     */
+    public QualityMetrics qualityMetrics() {
+        return qualityMetrics;
+    }
+
+    /**
+     * Returns the number of iterations performed by the last run, including
+     * the ones performed at the coarser levels.
+     *
+     * @return the number of iterations.
+     */
+    public int completedIterations() {
+        return coarseLevelIterations + (convergenceMonitor != null ? convergenceMonitor.iterations() : iterations);
+    }
+
+    /**
+     * Creates the post-processing that publishes the layout to the live
+     * preview of the test, if any, with the curve regions filled. The regions
+     * of the test graph are filled only at the end of the run.
+     *
+     * @param boundaryWidth the width of the curve boundaries.
+     * @return the preview publisher.
+     */
+    protected ImpredPostProcessing preview(double boundaryWidth) {
+        regionFiller = new RegionFiller(topology != null ? topology : CurveTopology.of(graph), boundaryWidth);
+        previewPublisher = new PreviewPublisher(preview, boundaryWidth);
+        return previewPublisher;
+    }
+
+    /**
+     * Creates the post-processing that publishes the layout to the live
+     * preview of the test, if any, without filling the curve regions.
+     *
+     * @return the preview publisher.
+     */
+    protected ImpredPostProcessing preview() {
+        previewPublisher = new PreviewPublisher(preview, 0);
+        return previewPublisher;
+    }
+
+    private void finishRegions() {
+        if (regionFiller != null) {
+            regionFiller.fill();
+            regionFiller = null;
+        }
+    }
+
+    private void finishPreview() {
+        if (previewPublisher != null) {
+            previewPublisher.publish();
+            previewPublisher = null;
+        }
+    }
+
+    /**
+     * Publishes the layout to a live preview at most once per display refresh.
+     */
+    private static class PreviewPublisher extends ImpredPostProcessing {
+
+        private final LivePreview preview;
+        private final double boundaryWidth;
+
+        public PreviewPublisher(LivePreview preview, double boundaryWidth) {
+            this.preview = preview;
+            this.boundaryWidth = boundaryWidth;
+        }
+
+        @Override
+        protected void execute() {
+            if (preview != null && preview.isDue()) {
+                publish();
+            }
+        }
 
-        private final Graph graph;
+        /**
+         * Publishes the current layout.
+         */
+        public void publish() {
+            if (preview != null) {
+                preview.publish(boundaryWidth);
+            }
+        }
+
+    }
+
+    /**
+     * Fills the curve regions of a graph. Only the regions whose boundary
+     * changed since the last fill are serialised again.
+     */
+    static class RegionFiller {
+
+        private final CurveTopology topology;
         private final double boundaryWidth;
+        private final List<Color> fillColors = new ArrayList<>();
+        private final List<Color> boundaryColors = new ArrayList<>();
+        private final Map<Graph, double[]> lastBoundaries = new HashMap<>();
 
         public RegionFiller(Graph graph, double boundaryWidth) {
-            this.graph = graph;
+            this(CurveTopology.of(graph), boundaryWidth);
+        }
+
+        public RegionFiller(CurveTopology topology, double boundaryWidth) {
+            this.topology = topology;
             this.boundaryWidth = boundaryWidth;
+            for (int i = 0; i < topology.curveCount(); i++) {
+                Color fillColor = regionColor(topology.curveGraph(i), i);
+                fillColors.add(fillColor);
+                boundaryColors.add(boundaryColor(fillColor));
+            }
         }
 
+        /**
+         * Returns the width of the region boundaries.
+         *
+         * @return the boundary width.
+         */
+        public double boundaryWidth() {
+            return boundaryWidth;
+        }
+
+        /**
+         * Fills the regions whose boundary changed since the last fill.
+         */
+        public void fill() {
+            for (int i = 0; i < topology.curveCount(); i++) {
+                Graph region = topology.curveGraph(i);
+                Polygon polygon = topology.polygon(i);
+                double[] boundary = new double[polygon.size() * 2];
+                for (int j = 0; j < polygon.size(); j++) {
+                    boundary[2 * j] = polygon.get(j).x();
+                    boundary[2 * j + 1] = polygon.get(j).y();
+                }
+                if (!Arrays.equals(boundary, lastBoundaries.get(region))) {
+                    fillCurve(region, polygon, fillColors.get(i), boundaryWidth, boundaryColors.get(i));
+                    lastBoundaries.put(region, boundary);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Stops the smoothing when its run is cancelled or the running thread is
+     * interrupted, and holds it between iterations while the run is paused.
+     */
+    private static class RunCheck extends ImpredPostProcessing {
+
         @Override
         protected void execute() {
-            fillCurves(graph, boundaryWidth);
+            SmoothingRun.checkpoint();
         }
 
     }
 
+    /**
+     * Returns the text area on which the interactive runs report their
+     * statistics. The area is created on first use, so that the runs measured
+     * without a display never touch Swing.
+     *
+     * @return the comment area.
+     */
+    public JTextArea comment() {
+        if (comment == null) {
+            comment = new JTextArea();
+        }
+        return comment;
+    }
+
+    /**
+     * Clears the comment area, if it has been created.
+     */
+    protected void clearComment() {
+        if (comment != null) {
+            comment.setText(null);
+        }
+    }
+
     @Override
     public void run() {
-        comment.setText("Statistics:\n");
+        JTextArea report = comment();
+        report.setText("Statistics:\n");
 
-        double sum = 0;
-        List<Polygon> originalPolygons = extractPolygons(graph);
-        for (Polygon polygon : originalPolygons) {
-            sum += Geom2D.isoperimetricQuotient(polygon);
+        double initialQuotient = averageIsoperimetricQuotient(graph);
+        report.append("Avarage isoperimetric quotient (initial):  " + initialQuotient + "\n");
+        TopologyValidator validator = new TopologyValidator(graph);
+        
+        long startTime = System.nanoTime();
+        try {
+            mainRun();
+        } catch (CancellationException exception) {
+            return;
         }
+        long stopTime = System.nanoTime();
+        finishRegions();
+        finishPreview();
+        double seconds = (stopTime - startTime) / 1000000000.0;
+
+        double finalQuotient = averageIsoperimetricQuotient(graph);
+        report.append("Avarage isoperimetric quotient (final):  " + finalQuotient + "\n");
+
+        report.append("Elapsed time (seconds):  " + String.format("%.3f%n", seconds) + "\n");
+        report.append("Iterations:  " + completedIterations() + "\n");
+        report.append("Topology:  " + validator.validate() + "\n");
+        if (trackQuality && qualityMetrics != null && qualityMetrics.last() != null) {
+            report.append("Boundary crossings:  " + qualityMetrics.last().crossings + "\n");
+            report.append("Minimum element-boundary clearance:  " + qualityMetrics.last().minClearance + "\n");
+        }
+        if (profiler != null) {
+            report.append("\nProfile:\n" + profiler.report());
+        }
+
+    }
+
+    /**
+     * Runs the test without reporting to the comment area, so that it can be
+     * executed on machines without a display.
+     *
+     * @return the statistics of the run.
+     * @throws CancellationException if the run is cancelled or the running
+     * thread is interrupted.
+     */
+    public Statistics measure() {
+        double initialQuotient = averageIsoperimetricQuotient(graph);
+        TopologyValidator validator = new TopologyValidator(graph);
 
-        comment.append("Avarage isoperimetric quotient (initial):  " + sum / originalPolygons.size() + "\n");
-        
         long startTime = System.nanoTime();
         mainRun();
         long stopTime = System.nanoTime();
         double seconds = (stopTime - startTime) / 1000000000.0;
+        finishRegions();
 
-        sum = 0;
-        List<Polygon> finalPolygons = extractPolygons(graph);
-        for (Polygon polygon : finalPolygons) {
+        double finalQuotient = averageIsoperimetricQuotient(graph);
+        return new Statistics(getName(), completedIterations(), initialQuotient, finalQuotient, seconds, validator.validate());
+    }
+
+    /**
+     * Computes the average isoperimetric quotient of the curves of a graph.
+     *
+     * @param graph the graph.
+     * @return the average isoperimetric quotient.
+     */
+    static double averageIsoperimetricQuotient(Graph graph) {
+        double sum = 0;
+        List<Polygon> polygons = extractPolygons(graph);
+        for (Polygon polygon : polygons) {
             sum += Geom2D.isoperimetricQuotient(polygon);
         }
+        return sum / polygons.size();
+    }
+
+    /**
+     * The statistics collected during a test run.
+     */
+    public static class Statistics {
+
+        public final String name;
+        public final int iterations;
+        public final double initialQuotient;
+        public final double finalQuotient;
+        public final double seconds;
+        public final TopologyValidator.Report topology;
+
+        public Statistics(String name, int iterations, double initialQuotient, double finalQuotient, double seconds, TopologyValidator.Report topology) {
+            this.name = name;
+            this.iterations = iterations;
+            this.initialQuotient = initialQuotient;
+            this.finalQuotient = finalQuotient;
+            this.seconds = seconds;
+            this.topology = topology;
+        }
+    }
+
+    /**
+     * Returns the tests available in the smoothing test GUI and in batch mode.
+     *
+     * @return the list of tests.
+     */
+    public static List<SmoothingTest> scenarios() {
+        List<SmoothingTest> tests = new ArrayList<>();
+//        tests.add(new SmoothingTest.TriangleSingle());
+//        tests.add(new SmoothingTest.ConcaveSingle());
+//        tests.add(new SmoothingTest.ConcaveFlexibleSingle());
+        tests.add(new SmoothingTest.AmebaFD());
+        tests.add(new SmoothingTest.AmebaConstrFD());
+        tests.add(new SmoothingTest.SpiralFD());
+        tests.add(new SmoothingTest.SpiralConstrFD());
+        tests.add(new SmoothingTest.SingleSetFixed());
+        tests.add(new SmoothingTest.SingleSetMoveable());
+        tests.add(new SmoothingTest.DoubleSetFixed());
+        tests.add(new SmoothingTest.DoubleSetMoveable());
+        tests.add(new SmoothingTest.Imdb20Fixed());
+        tests.add(new SmoothingTest.Imdb20FixedIndep());
+        tests.add(new SmoothingTest.Imdb20Moveable());
+        tests.add(new SmoothingTest.Imdb20MoveableIndep());
+        tests.add(new SmoothingTest.ManhattanBubble());
+        tests.add(new SmoothingTest.UntangledFixed());
+        tests.add(new SmoothingTest.Untangled());
+        tests.add(new SmoothingTest.UntangledSmall());
+        tests.add(new SmoothingTest.GeneralEuler());
+        tests.add(new SmoothingTest.SetVisualizerFixed());
+        tests.add(new SmoothingTest.SetVisualizerMovable());
+        tests.add(new SmoothingTest.EulerForce1());
+        tests.add(new SmoothingTest.EulerForce2());
+        tests.add(new SmoothingTest.EulerForce3sets(1));
+//        tests.add(new SmoothingTest.EulerForce3sets(2));
+        tests.add(new SmoothingTest.EulerForce3sets(3));
+//        tests.add(new SmoothingTest.EulerForce3sets(4));
+        tests.add(new SmoothingTest.EulerForce3sets(5));
+//        tests.add(new SmoothingTest.EulerForce3sets(6));
+        tests.add(new SmoothingTest.EulerForce3sets(7));
+//        tests.add(new SmoothingTest.EulerForce3sets(8));
+        tests.add(new SmoothingTest.EulerForce3sets(9));
+//        tests.add(new SmoothingTest.EulerForce3sets(10));
+        tests.add(new SmoothingTest.EulerForce4sets(1));
+//        tests.add(new SmoothingTest.EulerForce4sets(2));
+        tests.add(new SmoothingTest.EulerForce4sets(3));
+//        tests.add(new SmoothingTest.EulerForce4sets(4));
+        tests.add(new SmoothingTest.EulerForce4sets(5));
+//        tests.add(new SmoothingTest.EulerForce4sets(6));
+        tests.add(new SmoothingTest.EulerForce4sets(7));
+//        tests.add(new SmoothingTest.EulerForce4sets(8));
+        tests.add(new SmoothingTest.EulerForce4sets(9));
+//        tests.add(new SmoothingTest.EulerForce4sets(10));
+        tests.add(new SmoothingTest.EulerForce5sets(1));
+        tests.add(new SmoothingTest.EulerForce5sets(3));
+//        tests.add(new SmoothingTest.EulerForce5sets(4));
+        tests.add(new SmoothingTest.EulerForce5sets(5));
+//        tests.add(new SmoothingTest.EulerForce5sets(6));
+        tests.add(new SmoothingTest.EulerForce5sets(7));
+        tests.add(new SmoothingTest.EulerForce5sets(9));
+//        tests.add(new SmoothingTest.Euler3runtime(0.69));
+//        tests.add(new SmoothingTest.Euler3runtime(0.83));
+//        tests.add(new SmoothingTest.Euler3runtime(1));
+//        tests.add(new SmoothingTest.Euler3runtime(1.2));
+//        tests.add(new SmoothingTest.Euler3runtime(1.44));
+//        tests.add(new SmoothingTest.Euler4runtime(0.69));
+//        tests.add(new SmoothingTest.Euler4runtime(0.83));
+//        tests.add(new SmoothingTest.Euler4runtime(1));
+//        tests.add(new SmoothingTest.Euler4runtime(1.2));
+//        tests.add(new SmoothingTest.Euler4runtime(1.44));
+//        tests.add(new SmoothingTest.Euler5runtime(0.69));
+//        tests.add(new SmoothingTest.Euler5runtime(0.83));
+//        tests.add(new SmoothingTest.Euler5runtime(1));
+//        tests.add(new SmoothingTest.Euler5runtime(1.2));
+//        tests.add(new SmoothingTest.Euler5runtime(1.44));
+        return tests;
+    }
+
+    public static class OcoFile extends SmoothingTest {
+
+        private final File file;
+        private final boolean duplicateShared;
+
+        public OcoFile(File file, boolean duplicateShared) {
+            this.file = file;
+            this.duplicateShared = duplicateShared;
+        }
+
+        @Override
+        public String getName() {
+            return file.getName();
+        }
 
-        comment.append("Avarage isoperimetric quotient (final):  " + sum / finalPolygons.size() + "\n");
+        @Override
+        public String getDescription() {
+            return "Euler diagram read from " + file.getPath() + ".";
+        }
 
-        comment.append("Elapsed time (seconds):  " + String.format("%.3f%n", seconds) + "\n");
+        @Override
+        public Graph getGraph() {
+            graph = loadGraph(file, duplicateShared, distance / 10);
+            return graph;
+        }
 
+        @Override
+        public void reset() {
+            graph = getGraph();
+        }
+    }
+
+    /**
+     * Euler diagram given as the lines of an oco file, as received by the
+     * smoothing server. The text is parsed again at every reset.
+     */
+    public static class OcoText extends SmoothingTest {
+
+        private final String name;
+        private final List<String> lines;
+        private final boolean duplicateShared;
+
+        public OcoText(String name, List<String> lines, boolean duplicateShared) {
+            this.name = name;
+            this.lines = lines;
+            this.duplicateShared = duplicateShared;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Euler diagram read from the oco text " + name + ".";
+        }
+
+        @Override
+        public Graph getGraph() {
+            graph = new OcoSaver().read(lines);
+            if (duplicateShared) {
+                duplicateSharedCurves(graph);
+            }
+            fillCurves(graph, distance / 10);
+            return graph;
+        }
+
+        @Override
+        public void reset() {
+            graph = getGraph();
+        }
     }
 
     public static class TriangleSingle extends SmoothingTest {
@@ -344,7 +961,7 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
                     
             iterations = 1;
             fullOptions = false;
@@ -353,10 +970,13 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void mainRun() {
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(preview())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
 
     }
@@ -411,7 +1031,7 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             iterations = 1;
             fullOptions = false;
@@ -420,10 +1040,13 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void mainRun() {
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(preview())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
 
     }
@@ -486,7 +1109,7 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             iterations = 10;
             fullOptions = false;
@@ -495,11 +1118,14 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void mainRun() {
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
                     .withPostProcessing(new ImpredPostProcessing.MinIterationTime(500))
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(preview())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
 
     }
@@ -518,17 +1144,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Spiral.oco"));
-            fillCurves(graph, 2);
-
+            graph = loadGraph(new File("data/Spiral.oco"), false, 2);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 13;
             iterations = 2500;
@@ -538,13 +1161,14 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void mainRun() {
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
                     .withPostProcessing(new ImpredPostProcessing.FlexibleEdges(graph.edges(), distance * 1.45, distance * 1.5))
-                    .withPostProcessing(new ImpredPostProcessing.MinIterationTime(20))
-                    .withPostProcessing(new RegionFiller(graph, 1.5))
+                    .withPostProcessing(preview(1.5))
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
 
     }
@@ -563,16 +1187,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Spiral.oco"));
-            fillCurves(graph, 2);
+            graph = loadGraph(new File("data/Spiral.oco"), false, 2);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 13;
             iterations = 2500;
@@ -584,15 +1206,16 @@ public abstract class SmoothingTest implements Runnable {
             NodeAttribute<Collection<Edge>> surroundingEdges = new NodeAttribute<>(graph.edges());
 
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
                     .withConstraint(new ImpredConstraint.DecreasingMaxMovement(distance * 1.5))
-                    .withConstraint(new ImpredConstraint.SurroundingEdges(surroundingEdges))
+                    .withConstraint(new SmoothingConstraint.LocalSurroundingEdges(surroundingEdges))
                     .withPostProcessing(new ImpredPostProcessing.FlexibleEdges(graph.edges(), distance * 1.45, distance * 1.5))
-                    .withPostProcessing(new ImpredPostProcessing.MinIterationTime(20))
-                    .withPostProcessing(new RegionFiller(graph, 1.5))
+                    .withPostProcessing(preview(1.5))
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
 
     }
@@ -611,16 +1234,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Ameba.oco"));
-            fillCurves(graph, 2);
+            graph = loadGraph(new File("data/Ameba.oco"), false, 2);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 13;
             iterations = 2500;
@@ -630,12 +1251,14 @@ public abstract class SmoothingTest implements Runnable {
         @Override
         public void mainRun() {
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
                     .withPostProcessing(new ImpredPostProcessing.FlexibleEdges(graph.edges(), distance * 1.45, distance * 1.5))
-                    .withPostProcessing(new RegionFiller(graph, 1.5))
+                    .withPostProcessing(preview(1.5))
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
 
     }
@@ -654,16 +1277,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Ameba.oco"));
-            fillCurves(graph, 2);
+            graph = loadGraph(new File("data/Ameba.oco"), false, 2);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 13;
             iterations = 2500;
@@ -675,14 +1296,16 @@ public abstract class SmoothingTest implements Runnable {
             NodeAttribute<Collection<Edge>> surroundingEdges = new NodeAttribute<>(graph.edges());
 
             Impred impred = new Impred.ImpredBuilder(graph)
-                    .withForce(new ImpredForce.CurveSmoothing(extractCurves(graph)))
+                    .withForce(curveSmoothing())
                     .withConstraint(new ImpredConstraint.DecreasingMaxMovement(20))
-                    .withConstraint(new ImpredConstraint.SurroundingEdges(surroundingEdges))
+                    .withConstraint(new SmoothingConstraint.LocalSurroundingEdges(surroundingEdges))
                     .withPostProcessing(new ImpredPostProcessing.FlexibleEdges(graph.edges(), distance * 1.45, distance * 1.5))
-                    .withPostProcessing(new RegionFiller(graph, 1.5))
+                    .withPostProcessing(preview(1.5))
+                    .withPostProcessing(convergenceMonitor())
+                    .withPostProcessing(new RunCheck())
                     .build();
 
-            impred.iterate(iterations);
+            iterate(impred);
         }
     }
 
@@ -700,16 +1323,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/SingleSet.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/SingleSet.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = false;
@@ -733,16 +1354,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/SingleSet.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/SingleSet.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -766,16 +1385,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/DoubleSet.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/DoubleSet.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = false;
@@ -799,16 +1416,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/DoubleSet.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/DoubleSet.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -832,17 +1447,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Imdb20.oco"));
-            duplicateSharedCurves(graph);
-            fillCurves(graph, 0.7);
+            graph = loadGraph(new File("data/Imdb20.oco"), true, 0.7);
             return graph;
         }
 
         @Override
         public void reset() {
              graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 7;
             mov = false;
@@ -866,17 +1478,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Imdb20.oco"));
-            duplicateSharedCurves(graph);
-            fillCurves(graph, 0.7);
+            graph = loadGraph(new File("data/Imdb20.oco"), true, 0.7);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 7;
             mov = false;
@@ -900,17 +1509,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Imdb20.oco"));
-            duplicateSharedCurves(graph);
-            fillCurves(graph, 0.7);
+            graph = loadGraph(new File("data/Imdb20.oco"), true, 0.7);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 7;
             mov = true;
@@ -934,17 +1540,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Imdb20.oco"));
-            duplicateSharedCurves(graph);
-            fillCurves(graph, 0.7);
+            graph = loadGraph(new File("data/Imdb20.oco"), true, 0.7);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 7;
             mov = true;
@@ -968,16 +1571,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/ManhattanBubble.oco"));
-            fillCurves(graph, 0.8);
+            graph = loadGraph(new File("data/ManhattanBubble.oco"), false, 0.8);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 8;
             mov = false;
@@ -1001,16 +1602,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Untangled.oco"));
-            fillCurves(graph, 1.0);
+            graph = loadGraph(new File("data/Untangled.oco"), false, 1.0);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 10;
             mov = false;
@@ -1034,16 +1633,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Untangled.oco"));
-            fillCurves(graph, 1.0);
+            graph = loadGraph(new File("data/Untangled.oco"), false, 1.0);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 10;
             mov = true;
@@ -1067,16 +1664,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/Untangled_small.oco"));
-            fillCurves(graph, 1.0);
+            graph = loadGraph(new File("data/Untangled_small.oco"), false, 1.0);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 10;
             mov = true;
@@ -1100,16 +1695,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/GeneralEuler.oco"));
-            fillCurves(graph, 1.7);
+            graph = loadGraph(new File("data/GeneralEuler.oco"), false, 1.7);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 17;
             mov = true;
@@ -1133,16 +1726,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/SetVisualizer.oco"));
-            fillCurves(graph, 1);
+            graph = loadGraph(new File("data/SetVisualizer.oco"), false, 1);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 10;
             mov = false;
@@ -1166,16 +1757,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/SetVisualizer.oco"));
-            fillCurves(graph, 1);
+            graph = loadGraph(new File("data/SetVisualizer.oco"), false, 1);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 10;
             mov = true;
@@ -1199,16 +1788,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_1.oco"));
-            fillCurves(graph, 1.2);
+            graph = loadGraph(new File("data/EulerForce_1.oco"), false, 1.2);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 12;
             mov = true;
@@ -1232,16 +1819,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_2.oco"));
-            fillCurves(graph, 1.2);
+            graph = loadGraph(new File("data/EulerForce_2.oco"), false, 1.2);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 12;
             mov = true;
@@ -1273,16 +1858,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_3sets_" + i + ".oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/EulerForce_3sets_" + i + ".oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -1314,16 +1897,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_4sets_" + i + ".oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/EulerForce_4sets_" + i + ".oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -1355,16 +1936,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_5sets_" + i + ".oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/EulerForce_5sets_" + i + ".oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -1376,8 +1955,6 @@ public abstract class SmoothingTest implements Runnable {
 
     public static class Euler3runtime extends SmoothingTest {
 
-        private final double factor;
-
         public Euler3runtime(double factor) {
             this.factor = factor;
         }
@@ -1394,16 +1971,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_3sets_1.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/EulerForce_3sets_1.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -1411,18 +1986,10 @@ public abstract class SmoothingTest implements Runnable {
             sep = true;
             iterations = 350;
         }
-
-        @Override
-        public void mainRun() {
-            Impred impred = getImpred(graph, distance, mov, ind, sep, factor);
-            impred.iterate(iterations);
-        }
     }
 
     public static class Euler4runtime extends SmoothingTest {
 
-        private final double factor;
-
         public Euler4runtime(double factor) {
             this.factor = factor;
         }
@@ -1439,16 +2006,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_4sets_1.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/EulerForce_4sets_1.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -1456,18 +2021,10 @@ public abstract class SmoothingTest implements Runnable {
             sep = true;
             iterations = 350;
         }
-
-        @Override
-        public void mainRun() {
-            Impred impred = getImpred(graph, distance, mov, ind, sep, factor);
-            impred.iterate(iterations);
-        }
     }
 
     public static class Euler5runtime extends SmoothingTest {
 
-        private final double factor;
-
         public Euler5runtime(double factor) {
             this.factor = factor;
         }
@@ -1484,16 +2041,14 @@ public abstract class SmoothingTest implements Runnable {
 
         @Override
         public Graph getGraph() {
-            OcoSaver saver = new OcoSaver();
-            graph = saver.readFile(new File("data/EulerForce_5sets_3.oco"));
-            fillCurves(graph, 1.5);
+            graph = loadGraph(new File("data/EulerForce_5sets_3.oco"), false, 1.5);
             return graph;
         }
 
         @Override
         public void reset() {
             graph = getGraph();
-            comment.setText(null);
+            clearComment();
 
             distance = 15;
             mov = true;
@@ -1501,12 +2056,6 @@ public abstract class SmoothingTest implements Runnable {
             sep = true;
             iterations = 350;
         }
-
-        @Override
-        public void mainRun() {
-            Impred impred = getImpred(graph, distance, mov, ind, sep, factor);
-            impred.iterate(iterations);
-        }
     }
 
 }
@@ -25,6 +25,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.concurrent.TimeUnit;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
@@ -46,7 +47,9 @@ public class SmoothingTestGui extends JFrame {
 
     private final JToolBar toolBar = new JToolBar();
     private final JPanel mainArea = new JPanel();
-    private Thread currentThread;
+    private SmoothingRun<?> currentRun;
+    private LivePreview currentPreview;
+    private GraphCanvas currentCanvas;
 
     /**
      * Runs a new instance of smoothing test GUI.
@@ -81,72 +84,9 @@ public class SmoothingTestGui extends JFrame {
         add(scrollPane, BorderLayout.WEST);
         add(mainArea, BorderLayout.CENTER);
 
-//        addTest(new SmoothingTest.TriangleSingle());
-//        addTest(new SmoothingTest.ConcaveSingle());
-//        addTest(new SmoothingTest.ConcaveFlexibleSingle());
-        addTest(new SmoothingTest.AmebaFD());
-        addTest(new SmoothingTest.AmebaConstrFD());
-        addTest(new SmoothingTest.SpiralFD());
-        addTest(new SmoothingTest.SpiralConstrFD());
-        addTest(new SmoothingTest.SingleSetFixed());
-        addTest(new SmoothingTest.SingleSetMoveable());
-        addTest(new SmoothingTest.DoubleSetFixed());
-        addTest(new SmoothingTest.DoubleSetMoveable());
-        addTest(new SmoothingTest.Imdb20Fixed());
-        addTest(new SmoothingTest.Imdb20FixedIndep());
-        addTest(new SmoothingTest.Imdb20Moveable());
-        addTest(new SmoothingTest.Imdb20MoveableIndep());
-        addTest(new SmoothingTest.ManhattanBubble());
-        addTest(new SmoothingTest.UntangledFixed());
-        addTest(new SmoothingTest.Untangled());
-        addTest(new SmoothingTest.UntangledSmall());
-        addTest(new SmoothingTest.GeneralEuler());
-        addTest(new SmoothingTest.SetVisualizerFixed());
-        addTest(new SmoothingTest.SetVisualizerMovable());
-        addTest(new SmoothingTest.EulerForce1());
-        addTest(new SmoothingTest.EulerForce2());
-        addTest(new SmoothingTest.EulerForce3sets(1));
-//        addTest(new SmoothingTest.EulerForce3sets(2));
-        addTest(new SmoothingTest.EulerForce3sets(3));
-//        addTest(new SmoothingTest.EulerForce3sets(4));
-        addTest(new SmoothingTest.EulerForce3sets(5));
-//        addTest(new SmoothingTest.EulerForce3sets(6));
-        addTest(new SmoothingTest.EulerForce3sets(7));
-//        addTest(new SmoothingTest.EulerForce3sets(8));
-        addTest(new SmoothingTest.EulerForce3sets(9));
-//        addTest(new SmoothingTest.EulerForce3sets(10));
-        addTest(new SmoothingTest.EulerForce4sets(1));
-//        addTest(new SmoothingTest.EulerForce4sets(2));
-        addTest(new SmoothingTest.EulerForce4sets(3));
-//        addTest(new SmoothingTest.EulerForce4sets(4));
-        addTest(new SmoothingTest.EulerForce4sets(5));
-//        addTest(new SmoothingTest.EulerForce4sets(6));
-        addTest(new SmoothingTest.EulerForce4sets(7));
-//        addTest(new SmoothingTest.EulerForce4sets(8));
-        addTest(new SmoothingTest.EulerForce4sets(9));
-//        addTest(new SmoothingTest.EulerForce4sets(10));
-        addTest(new SmoothingTest.EulerForce5sets(1));
-        addTest(new SmoothingTest.EulerForce5sets(3));
-//        addTest(new SmoothingTest.EulerForce5sets(4));
-        addTest(new SmoothingTest.EulerForce5sets(5));
-//        addTest(new SmoothingTest.EulerForce5sets(6));
-        addTest(new SmoothingTest.EulerForce5sets(7));
-        addTest(new SmoothingTest.EulerForce5sets(9));
-//        addTest(new SmoothingTest.Euler3runtime(0.69));
-//        addTest(new SmoothingTest.Euler3runtime(0.83));
-//        addTest(new SmoothingTest.Euler3runtime(1));
-//        addTest(new SmoothingTest.Euler3runtime(1.2));
-//        addTest(new SmoothingTest.Euler3runtime(1.44));
-//        addTest(new SmoothingTest.Euler4runtime(0.69));
-//        addTest(new SmoothingTest.Euler4runtime(0.83));
-//        addTest(new SmoothingTest.Euler4runtime(1));
-//        addTest(new SmoothingTest.Euler4runtime(1.2));
-//        addTest(new SmoothingTest.Euler4runtime(1.44));
-//        addTest(new SmoothingTest.Euler5runtime(0.69));
-//        addTest(new SmoothingTest.Euler5runtime(0.83));
-//        addTest(new SmoothingTest.Euler5runtime(1));
-//        addTest(new SmoothingTest.Euler5runtime(1.2));
-//        addTest(new SmoothingTest.Euler5runtime(1.44));
+        for (SmoothingTest test : SmoothingTest.scenarios()) {
+            addTest(test);
+        }
     }
 
     private void addTest(final SmoothingTest test) {
@@ -165,16 +105,24 @@ public class SmoothingTestGui extends JFrame {
 
             @Override
             public void actionPerformed(ActionEvent ae) {
-                if (currentThread != null) {
-                    currentThread.interrupt();
+                if (currentRun != null) {
+                    currentRun.cancel(true);
+                }
+                if (currentPreview != null) {
+                    currentPreview.stop();
+                    currentCanvas.close();
                 }
 
                 test.reset();
+                currentPreview = new LivePreview(test.graph);
+                currentCanvas = new GraphCanvas(currentPreview.graph());
+                test.preview = currentPreview;
                 mainArea.removeAll();
-                mainArea.add(test.comment, BorderLayout.SOUTH);
+                mainArea.add(test.comment(), BorderLayout.SOUTH);
                 mainArea.add(new OptionBar(test), BorderLayout.NORTH);
-                mainArea.add(new GraphCanvas(test.getGraph()), BorderLayout.CENTER);
+                mainArea.add(currentCanvas, BorderLayout.CENTER);
                 mainArea.validate();
+                currentPreview.start();
             }
         });
     }
@@ -198,20 +146,37 @@ public class SmoothingTestGui extends JFrame {
             }
 
             final JButton startButton = new JButton("Start");
+            final JButton pauseButton = new JButton("Pause");
+            pauseButton.setEnabled(false);
             startButton.addActionListener(new ActionListener() {
 
                 @Override
                 public void actionPerformed(ActionEvent ae) {
-                    if (currentThread != null) {
-                        currentThread.interrupt();
+                    if (currentRun != null) {
+                        currentRun.cancel(true);
                     }
-                    currentThread = new Thread(test);
-                    currentThread.start();
+                    currentRun = new SmoothingRun<>(test, 0, TimeUnit.SECONDS);
+                    new Thread(currentRun, "smoothing-" + test.getName()).start();
                     startButton.setEnabled(false);
+                    pauseButton.setEnabled(true);
+                }
+            });
+            pauseButton.addActionListener(new ActionListener() {
+
+                @Override
+                public void actionPerformed(ActionEvent ae) {
+                    if (currentRun.isPaused()) {
+                        currentRun.resume();
+                        pauseButton.setText("Pause");
+                    } else {
+                        currentRun.pause();
+                        pauseButton.setText("Resume");
+                    }
                 }
             });
 
             this.add(startButton);
+            this.add(pauseButton);
 
         }
 
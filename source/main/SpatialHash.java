@@ -0,0 +1,214 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import java.util.Arrays;
+import java.util.Collection;
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute;
+
+/**
+ * Spatial hash of the node boxes given by the nodeSize attribute. The boxes
+ * are registered in a uniform grid by their centre, with cells large enough
+ * for every pair of boxes within the reach to lie in neighbouring cells. The
+ * grid cells are hashed in a table of buckets stored in flat arrays, so that
+ * rebuilding the hash at every iteration does not allocate.
+ */
+public class SpatialHash {
+
+    private final Node[] nodes;
+    private final double[] x;
+    private final double[] y;
+    private final double[] halfWidth;
+    private final double[] halfHeight;
+    private final long[] cellX;
+    private final long[] cellY;
+    private final int[] bucketStart;
+    private final int[] bucketNext;
+    private final int[] items;
+    private final int mask;
+    private int[] found = new int[16];
+    private double cellSize;
+    private double reach;
+
+    /**
+     * Constructs the hash for the given nodes.
+     *
+     * @param nodes the nodes.
+     */
+    public SpatialHash(Collection<Node> nodes) {
+        this.nodes = nodes.toArray(new Node[nodes.size()]);
+        int count = this.nodes.length;
+        this.x = new double[count];
+        this.y = new double[count];
+        this.halfWidth = new double[count];
+        this.halfHeight = new double[count];
+        this.cellX = new long[count];
+        this.cellY = new long[count];
+        this.items = new int[count];
+        int buckets = Integer.highestOneBit(Math.max(1, 2 * count - 1)) << 1;
+        this.bucketStart = new int[buckets + 1];
+        this.bucketNext = new int[buckets];
+        this.mask = buckets - 1;
+    }
+
+    /**
+     * Reads the node boxes and rebuilds the hash.
+     *
+     * @param graph the graph containing the nodes.
+     * @param positions the node positions.
+     * @param reach the largest gap between two boxes for them to be
+     * neighbours.
+     */
+    public void update(Graph graph, NodeAttribute<Coordinates> positions, double reach) {
+        NodeAttribute<Coordinates> sizes = graph.hasNodeAttribute(StdAttribute.nodeSize)
+                ? graph.<Coordinates>nodeAttribute(StdAttribute.nodeSize) : null;
+        double maxSide = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            Coordinates position = positions.get(nodes[i]);
+            x[i] = position.x();
+            y[i] = position.y();
+            Coordinates size = sizes != null ? sizes.get(nodes[i]) : null;
+            halfWidth[i] = size != null ? size.x() / 2 : 0;
+            halfHeight[i] = size != null ? size.y() / 2 : 0;
+            maxSide = Math.max(maxSide, 2 * Math.max(halfWidth[i], halfHeight[i]));
+        }
+        this.reach = reach;
+        this.cellSize = Math.max(maxSide + reach, Double.MIN_NORMAL);
+
+        Arrays.fill(bucketStart, 0);
+        for (int i = 0; i < nodes.length; i++) {
+            cellX[i] = (long) Math.floor(x[i] / cellSize);
+            cellY[i] = (long) Math.floor(y[i] / cellSize);
+            bucketStart[bucket(cellX[i], cellY[i]) + 1]++;
+        }
+        for (int b = 0; b < mask + 1; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        System.arraycopy(bucketStart, 0, bucketNext, 0, mask + 1);
+        for (int i = 0; i < nodes.length; i++) {
+            items[bucketNext[bucket(cellX[i], cellY[i])]++] = i;
+        }
+    }
+
+    /**
+     * Finds the boxes that follow the given one in the node order and whose
+     * gap from it is at most the reach along both axes. Every pair of
+     * neighbours is therefore found once. The result is valid until the next
+     * call.
+     *
+     * @param i the index of the box.
+     * @return the number of neighbours, which can be read with neighbour.
+     */
+    public int neighbours(int i) {
+        int count = 0;
+        for (long cx = cellX[i] - 1; cx <= cellX[i] + 1; cx++) {
+            for (long cy = cellY[i] - 1; cy <= cellY[i] + 1; cy++) {
+                int b = bucket(cx, cy);
+                for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+                    int j = items[k];
+                    if (j <= i || cellX[j] != cx || cellY[j] != cy
+                            || Math.abs(x[i] - x[j]) > halfWidth[i] + halfWidth[j] + reach
+                            || Math.abs(y[i] - y[j]) > halfHeight[i] + halfHeight[j] + reach) {
+                        continue;
+                    }
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = j;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a neighbour found by the last call to neighbours.
+     *
+     * @param k the position of the neighbour.
+     * @return the index of the neighbour box.
+     */
+    public int neighbour(int k) {
+        return found[k];
+    }
+
+    private int bucket(long cx, long cy) {
+        long hash = cx * 0x9E3779B97F4A7C15L + cy * 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the number of boxes.
+     *
+     * @return the number of boxes.
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the node of a box.
+     *
+     * @param i the index of the box.
+     * @return the node.
+     */
+    public Node node(int i) {
+        return nodes[i];
+    }
+
+    /**
+     * Returns the x coordinate of the centre of a box.
+     *
+     * @param i the index of the box.
+     * @return the x coordinate.
+     */
+    public double x(int i) {
+        return x[i];
+    }
+
+    /**
+     * Returns the y coordinate of the centre of a box.
+     *
+     * @param i the index of the box.
+     * @return the y coordinate.
+     */
+    public double y(int i) {
+        return y[i];
+    }
+
+    /**
+     * Returns the half width of a box.
+     *
+     * @param i the index of the box.
+     * @return the half width.
+     */
+    public double halfWidth(int i) {
+        return halfWidth[i];
+    }
+
+    /**
+     * Returns the half height of a box.
+     *
+     * @param i the index of the box.
+     * @return the half height.
+     */
+    public double halfHeight(int i) {
+        return halfHeight[i];
+    }
+}
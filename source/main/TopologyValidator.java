@@ -0,0 +1,445 @@
+/**
+ * Copyright © 2014-2015 Paolo Simonetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package main;
+
+import ocotillo.geometry.Coordinates;
+import ocotillo.graph.Edge;
+import ocotillo.graph.EdgeAttribute;
+import ocotillo.graph.Graph;
+import ocotillo.graph.Node;
+import ocotillo.graph.NodeAttribute;
+import ocotillo.graph.StdAttribute;
+import ocotillo.graph.StdAttribute.ControlPoints;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Verifies that the smoothing preserved the topology of a diagram. The
+ * validator records the layout of the graph when constructed, and compares it
+ * with the current one when validated. It reports the new curve
+ * self-intersections, the new crossings between curves and the set elements
+ * that are no longer contained in the same curves.
+ * <p>
+ * The curve segments are indexed in a uniform grid. Two segments are tested
+ * for intersection only if their bounding boxes share a cell, and the
+ * containment of an element is computed by casting a ray through the cells of
+ * its row.
+ */
+public class TopologyValidator {
+
+    private static final int maxGridSize = 1024;
+
+    private final Graph graph;
+    private final List<Node> elements = new ArrayList<>();
+    private final int[][] initialCrossings;
+    private final boolean[][] initialContainment;
+
+    /**
+     * Records the current layout of a graph.
+     *
+     * @param graph the graph.
+     */
+    public TopologyValidator(Graph graph) {
+        this.graph = graph;
+        for (Node node : graph.nodes()) {
+            if (graph.degree(node) == 0) {
+                elements.add(node);
+            }
+        }
+        SegmentGrid grid = new SegmentGrid(graph);
+        this.initialCrossings = grid.crossings();
+        this.initialContainment = grid.containment(graph, elements);
+    }
+
+    /**
+     * Compares the current layout of the graph with the recorded one.
+     *
+     * @return the report of the topology violations.
+     */
+    public Report validate() {
+        SegmentGrid grid = new SegmentGrid(graph);
+        int[][] crossings = grid.crossings();
+        boolean[][] containment = grid.containment(graph, elements);
+        List<Node> movedElements = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i++) {
+            for (int curve = 0; curve < containment[i].length; curve++) {
+                if (containment[i][curve] != initialContainment[i][curve]) {
+                    movedElements.add(elements.get(i));
+                    break;
+                }
+            }
+        }
+        return new Report(initialCrossings, crossings, movedElements);
+    }
+
+    /**
+     * The topology violations found by a validation.
+     */
+    public static class Report {
+
+        private final int[][] initialCrossings;
+        private final int[][] crossings;
+        private final List<Node> movedElements;
+
+        private Report(int[][] initialCrossings, int[][] crossings, List<Node> movedElements) {
+            this.initialCrossings = initialCrossings;
+            this.crossings = crossings;
+            this.movedElements = Collections.unmodifiableList(movedElements);
+        }
+
+        /**
+         * Returns the number of curves.
+         *
+         * @return the number of curves.
+         */
+        public int curveCount() {
+            return crossings.length;
+        }
+
+        /**
+         * Returns the number of self-intersections of a curve.
+         *
+         * @param curve the curve index.
+         * @return the current number of self-intersections.
+         */
+        public int selfIntersections(int curve) {
+            return crossings[curve][curve];
+        }
+
+        /**
+         * Returns the number of crossings between two curves, or of
+         * self-intersections if the curves are the same.
+         *
+         * @param first the first curve index.
+         * @param second the second curve index.
+         * @return the current number of crossings.
+         */
+        public int crossings(int first, int second) {
+            return crossings[Math.min(first, second)][Math.max(first, second)];
+        }
+
+        /**
+         * Returns the number of crossings between two curves that were not
+         * present in the recorded layout.
+         *
+         * @param first the first curve index.
+         * @param second the second curve index.
+         * @return the number of new crossings.
+         */
+        public int newCrossings(int first, int second) {
+            int i = Math.min(first, second);
+            int j = Math.max(first, second);
+            return Math.max(0, crossings[i][j] - initialCrossings[i][j]);
+        }
+
+        /**
+         * Returns the set elements whose containing curves changed.
+         *
+         * @return the moved elements.
+         */
+        public List<Node> movedElements() {
+            return movedElements;
+        }
+
+        /**
+         * Returns the number of violations, counting each new crossing or
+         * self-intersection and each moved element.
+         *
+         * @return the number of violations.
+         */
+        public int violationCount() {
+            int count = movedElements.size();
+            for (int i = 0; i < curveCount(); i++) {
+                for (int j = i; j < curveCount(); j++) {
+                    count += newCrossings(i, j);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Checks whether the topology has been preserved.
+         *
+         * @return true if no violations were found.
+         */
+        public boolean isValid() {
+            return violationCount() == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (isValid()) {
+                return "preserved";
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < curveCount(); i++) {
+                for (int j = i; j < curveCount(); j++) {
+                    int count = newCrossings(i, j);
+                    if (count == 0) {
+                        continue;
+                    }
+                    builder.append(builder.length() > 0 ? ", " : "");
+                    if (i == j) {
+                        builder.append(count).append(" new self-intersections of curve ").append(i);
+                    } else {
+                        builder.append(count).append(" new crossings between curves ").append(i).append(" and ").append(j);
+                    }
+                }
+            }
+            if (!movedElements.isEmpty()) {
+                builder.append(builder.length() > 0 ? ", " : "");
+                builder.append(movedElements.size()).append(" elements changed region");
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * The segments of the curve edges indexed in a uniform grid. Each segment
+     * is registered in the cells covered by its bounding box, and the cell
+     * contents are stored in a compressed array.
+     */
+    private static class SegmentGrid {
+
+        private final int curveCount;
+        private final int[][] edgeCurves;
+        private final int segmentCount;
+        private final double[] x0;
+        private final double[] y0;
+        private final double[] x1;
+        private final double[] y1;
+        private final int[] segmentEdges;
+
+        private final double minX;
+        private final double minY;
+        private final double cellSize;
+        private final int columns;
+        private final int rows;
+        private final int[] cellStart;
+        private final int[] cellSegments;
+
+        private SegmentGrid(Graph graph) {
+            CurveTopology topology = CurveTopology.of(graph);
+            curveCount = topology.curveCount();
+            int[] curveStart = topology.curveStart();
+            int[] curveEdges = topology.curveEdges();
+
+            int edgeCount = 0;
+            for (int edge : curveEdges) {
+                edgeCount = Math.max(edgeCount, edge + 1);
+            }
+            int[] curvesPerEdge = new int[edgeCount];
+            for (int edge : curveEdges) {
+                curvesPerEdge[edge]++;
+            }
+            edgeCurves = new int[edgeCount][];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                edgeCurves[edge] = new int[curvesPerEdge[edge]];
+                curvesPerEdge[edge] = 0;
+            }
+            for (int curve = 0; curve < curveCount; curve++) {
+                for (int i = curveStart[curve]; i < curveStart[curve + 1]; i++) {
+                    int edge = curveEdges[i];
+                    edgeCurves[edge][curvesPerEdge[edge]++] = curve;
+                }
+            }
+
+            NodeAttribute<Coordinates> positions = graph.nodeAttribute(StdAttribute.nodePosition);
+            EdgeAttribute<ControlPoints> edgePoints = graph.edgeAttribute(StdAttribute.edgePoints);
+            int total = 0;
+            for (int edge = 0; edge < edgeCount; edge++) {
+                total += edgePoints.get(topology.edge(edge)).size() + 1;
+            }
+            segmentCount = total;
+            x0 = new double[total];
+            y0 = new double[total];
+            x1 = new double[total];
+            y1 = new double[total];
+            segmentEdges = new int[total];
+            int segment = 0;
+            double totalLength = 0;
+            for (int edge = 0; edge < edgeCount; edge++) {
+                Edge graphEdge = topology.edge(edge);
+                ControlPoints bends = edgePoints.get(graphEdge);
+                Coordinates previous = positions.get(graphEdge.source());
+                for (int j = 0; j <= bends.size(); j++) {
+                    Coordinates next = j < bends.size() ? bends.get(j) : positions.get(graphEdge.target());
+                    x0[segment] = previous.x();
+                    y0[segment] = previous.y();
+                    x1[segment] = next.x();
+                    y1[segment] = next.y();
+                    segmentEdges[segment] = edge;
+                    totalLength += Math.hypot(next.x() - previous.x(), next.y() - previous.y());
+                    previous = next;
+                    segment++;
+                }
+            }
+
+            double minimumX = Double.POSITIVE_INFINITY;
+            double minimumY = Double.POSITIVE_INFINITY;
+            double maximumX = Double.NEGATIVE_INFINITY;
+            double maximumY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < segmentCount; i++) {
+                minimumX = Math.min(minimumX, Math.min(x0[i], x1[i]));
+                minimumY = Math.min(minimumY, Math.min(y0[i], y1[i]));
+                maximumX = Math.max(maximumX, Math.max(x0[i], x1[i]));
+                maximumY = Math.max(maximumY, Math.max(y0[i], y1[i]));
+            }
+            if (segmentCount == 0) {
+                minimumX = minimumY = maximumX = maximumY = 0;
+            }
+            double extent = Math.max(maximumX - minimumX, maximumY - minimumY);
+            double averageLength = segmentCount > 0 ? totalLength / segmentCount : 0;
+            minX = minimumX;
+            minY = minimumY;
+            cellSize = Math.max(Math.max(averageLength, extent / maxGridSize), Double.MIN_NORMAL);
+            columns = Math.min(maxGridSize, (int) ((maximumX - minimumX) / cellSize)) + 1;
+            rows = Math.min(maxGridSize, (int) ((maximumY - minimumY) / cellSize)) + 1;
+
+            cellStart = new int[columns * rows + 1];
+            for (int i = 0; i < segmentCount; i++) {
+                for (int row = minRow(i); row <= maxRow(i); row++) {
+                    for (int column = minColumn(i); column <= maxColumn(i); column++) {
+                        cellStart[row * columns + column + 1]++;
+                    }
+                }
+            }
+            for (int cell = 0; cell < columns * rows; cell++) {
+                cellStart[cell + 1] += cellStart[cell];
+            }
+            cellSegments = new int[cellStart[columns * rows]];
+            int[] filled = new int[columns * rows];
+            for (int i = 0; i < segmentCount; i++) {
+                for (int row = minRow(i); row <= maxRow(i); row++) {
+                    for (int column = minColumn(i); column <= maxColumn(i); column++) {
+                        int cell = row * columns + column;
+                        cellSegments[cellStart[cell] + filled[cell]++] = i;
+                    }
+                }
+            }
+        }
+
+        private int column(double x) {
+            return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - minX) / cellSize)));
+        }
+
+        private int row(double y) {
+            return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellSize)));
+        }
+
+        private int minColumn(int segment) {
+            return column(Math.min(x0[segment], x1[segment]));
+        }
+
+        private int maxColumn(int segment) {
+            return column(Math.max(x0[segment], x1[segment]));
+        }
+
+        private int minRow(int segment) {
+            return row(Math.min(y0[segment], y1[segment]));
+        }
+
+        private int maxRow(int segment) {
+            return row(Math.max(y0[segment], y1[segment]));
+        }
+
+        /**
+         * Counts the proper crossings between the segments. A pair sharing
+         * more cells is tested only in the first cell of the intersection of
+         * their bounding boxes. Each crossing is counted for every pair of
+         * curves containing the two segments, in the upper triangle of the
+         * matrix, with the self-intersections on the diagonal.
+         */
+        private int[][] crossings() {
+            int[][] crossings = new int[curveCount][curveCount];
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    int cell = row * columns + column;
+                    for (int a = cellStart[cell]; a < cellStart[cell + 1]; a++) {
+                        int first = cellSegments[a];
+                        for (int b = a + 1; b < cellStart[cell + 1]; b++) {
+                            int second = cellSegments[b];
+                            if (Math.max(minColumn(first), minColumn(second)) != column
+                                    || Math.max(minRow(first), minRow(second)) != row
+                                    || !properlyIntersect(first, second)) {
+                                continue;
+                            }
+                            for (int firstCurve : edgeCurves[segmentEdges[first]]) {
+                                for (int secondCurve : edgeCurves[segmentEdges[second]]) {
+                                    crossings[Math.min(firstCurve, secondCurve)][Math.max(firstCurve, secondCurve)]++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return crossings;
+        }
+
+        private boolean properlyIntersect(int first, int second) {
+            double abc = orientation(x0[first], y0[first], x1[first], y1[first], x0[second], y0[second]);
+            double abd = orientation(x0[first], y0[first], x1[first], y1[first], x1[second], y1[second]);
+            double cda = orientation(x0[second], y0[second], x1[second], y1[second], x0[first], y0[first]);
+            double cdb = orientation(x0[second], y0[second], x1[second], y1[second], x1[first], y1[first]);
+            return ((abc > 0 && abd < 0) || (abc < 0 && abd > 0)) && ((cda > 0 && cdb < 0) || (cda < 0 && cdb > 0));
+        }
+
+        private static double orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+            return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        }
+
+        /**
+         * Computes the curves containing each element by casting a ray in the
+         * positive x direction and counting the crossed segments of each
+         * curve.
+         */
+        private boolean[][] containment(Graph graph, List<Node> elements) {
+            boolean[][] containment = new boolean[elements.size()][curveCount];
+            if (segmentCount == 0) {
+                return containment;
+            }
+            int[] visited = new int[segmentCount];
+            NodeAttribute<Coordinates> positions = graph.nodeAttribute(StdAttribute.nodePosition);
+            for (int i = 0; i < elements.size(); i++) {
+                Coordinates position = positions.get(elements.get(i));
+                double x = position.x();
+                double y = position.y();
+                if (y < minY || y > minY + rows * cellSize) {
+                    continue;
+                }
+                int row = row(y);
+                for (int column = column(x); column < columns; column++) {
+                    int cell = row * columns + column;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int segment = cellSegments[k];
+                        if (visited[segment] == i + 1) {
+                            continue;
+                        }
+                        visited[segment] = i + 1;
+                        if ((y0[segment] > y) != (y1[segment] > y)
+                                && x < x0[segment] + (y - y0[segment]) * (x1[segment] - x0[segment]) / (y1[segment] - y0[segment])) {
+                            for (int curve : edgeCurves[segmentEdges[segment]]) {
+                                containment[i][curve] = !containment[i][curve];
+                            }
+                        }
+                    }
+                }
+            }
+            return containment;
+        }
+    }
+}